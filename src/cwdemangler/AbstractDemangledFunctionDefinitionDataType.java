@@ -51,16 +51,41 @@ public abstract class AbstractDemangledFunctionDefinitionDataType extends Demang
 	 */
 	abstract protected String getTypeString();
 
+	@Override
+	boolean markRendered() {
+		boolean isTracked = super.markRendered();
+		if (returnType != null && !returnType.markRendered()) {
+			isTracked = false;
+		}
+		for (DemangledDataType parameter : parameters) {
+			if (!parameter.markRendered()) {
+				isTracked = false;
+			}
+		}
+		return isTracked;
+	}
+
 	@Override
 	public String getSignature() {
 		return toSignature(null);
 	}
 
+	@Override
+	public void appendSignature(StringBuilder buffer) {
+		appendSignature(buffer, null);
+	}
+
+	@Override
+	void appendSignature(SignatureFormatter formatter) {
+		appendSignature(formatter.getBuffer());
+	}
+
 	/**
 	 * Sets the return type
 	 * @param returnType the return type
 	 */
 	public void setReturnType(DemangledDataType returnType) {
+		modify();
 		this.returnType = returnType;
 	}
 
@@ -77,6 +102,7 @@ public abstract class AbstractDemangledFunctionDefinitionDataType extends Demang
 	 * @param callingConvention the function calling convention
 	 */
 	public void setCallingConvention(String callingConvention) {
+		modify();
 		this.callingConvention = callingConvention;
 	}
 
@@ -93,6 +119,7 @@ public abstract class AbstractDemangledFunctionDefinitionDataType extends Demang
 	 * @param modifier the function modifier
 	 */
 	public void setModifier(String modifier) {
+		modify();
 		this.modifier = modifier;
 	}
 
@@ -101,6 +128,7 @@ public abstract class AbstractDemangledFunctionDefinitionDataType extends Demang
 	}
 
 	public void setConstPointer() {
+		modify();
 		isConstPointer = true;
 	}
 
@@ -109,6 +137,7 @@ public abstract class AbstractDemangledFunctionDefinitionDataType extends Demang
 	}
 
 	public void setTrailingPointer64() {
+		modify();
 		isTrailingPointer64 = true;
 	}
 
@@ -117,6 +146,7 @@ public abstract class AbstractDemangledFunctionDefinitionDataType extends Demang
 	}
 
 	public void setTrailingUnaligned() {
+		modify();
 		isTrailingUnaligned = true;
 	}
 
@@ -125,6 +155,7 @@ public abstract class AbstractDemangledFunctionDefinitionDataType extends Demang
 	}
 
 	public void setTrailingRestrict() {
+		modify();
 		isTrailingRestrict = true;
 	}
 
@@ -133,6 +164,7 @@ public abstract class AbstractDemangledFunctionDefinitionDataType extends Demang
 	 * @param parameter the new parameter to add
 	 */
 	public void addParameter(DemangledDataType parameter) {
+		modify();
 		parameters.add(parameter);
 	}
 
@@ -146,73 +178,86 @@ public abstract class AbstractDemangledFunctionDefinitionDataType extends Demang
 
 	public String toSignature(String name) {
 		StringBuilder buffer = new StringBuilder();
-		StringBuilder buffer1 = new StringBuilder();
-		String s = getConventionPointerNameString(name);
-
-		addFunctionPointerParens(buffer1, s);
-
-		buffer1.append('(');
-		for (int i = 0; i < parameters.size(); ++i) {
-			buffer1.append(parameters.get(i).getSignature());
-			if (i < parameters.size() - 1) {
-				buffer1.append(',');
-			}
-		}
-		buffer1.append(')');
+		appendSignature(buffer, name);
+		return buffer.toString();
+	}
 
+	/**
+	 * Appends {@link #toSignature(String)} to the given buffer
+	 * @param buffer the buffer to append to
+	 * @param name the name being declared, or null
+	 */
+	public void appendSignature(StringBuilder buffer, String name) {
+		int start = buffer.length();
 		if (returnType instanceof DemangledFunctionPointer) {
+			// The declarator nests inside the declarator of the returned function type
+			StringBuilder declarator = new StringBuilder();
+			appendDeclarator(declarator, name);
 			DemangledFunctionPointer dfp = (DemangledFunctionPointer) returnType;
-			buffer.append(dfp.toSignature(buffer1.toString())).append(SPACE);
-		}
-		else if (returnType instanceof DemangledFunctionReference) {
-			DemangledFunctionReference dfr = (DemangledFunctionReference) returnType;
-			buffer.append(dfr.toSignature(buffer1.toString())).append(SPACE);
+			dfp.appendSignature(buffer, declarator.toString());
+			buffer.append(SPACE);
 		}
-		else if (returnType instanceof DemangledFunctionIndirect) {
-			DemangledFunctionIndirect dfi = (DemangledFunctionIndirect) returnType;
-			buffer.append(dfi.toSignature(buffer1.toString())).append(SPACE);
+		else if (returnType instanceof AbstractDemangledFunctionDefinitionDataType) {
+			StringBuilder declarator = new StringBuilder();
+			appendDeclarator(declarator, name);
+			AbstractDemangledFunctionDefinitionDataType dfd =
+				(AbstractDemangledFunctionDefinitionDataType) returnType;
+			dfd.appendSignature(buffer, declarator.toString());
+			buffer.append(SPACE);
 		}
 		else {
-			buffer.append(returnType.getSignature()).append(SPACE);
-			buffer.append(buffer1);
+			returnType.appendSignature(buffer);
+			buffer.append(SPACE);
+			appendDeclarator(buffer, name);
 		}
 
 		if (isConst()) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(CONST);
 		}
 
 		if (isVolatile()) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(VOLATILE);
 		}
 
 		if (isTrailingUnaligned) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(UNALIGNED);
 		}
 
 		if (isTrailingPointer64) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(PTR64);
 		}
 
 		if (isTrailingRestrict) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(RESTRICT);
 		}
+	}
 
-		return buffer.toString();
+	private void appendDeclarator(StringBuilder buffer, String name) {
+		addFunctionPointerParens(buffer, getConventionPointerNameString(name));
+
+		buffer.append('(');
+		for (int i = 0; i < parameters.size(); ++i) {
+			parameters.get(i).appendSignature(buffer);
+			if (i < parameters.size() - 1) {
+				buffer.append(',');
+			}
+		}
+		buffer.append(')');
 	}
 
 	protected String getConventionPointerNameString(String name) {
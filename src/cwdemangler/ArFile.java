@@ -0,0 +1,175 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The members of an {@code ar} archive (static library), read in place from a buffer holding
+ * the archive.  Member names may be stored in the header, in the GNU long name table
+ * ({@code //}) or, BSD style, in front of the member data; the symbol index ({@code /} or
+ * {@code __.SYMDEF}) is not a member.
+ */
+public final class ArFile {
+
+	private static final byte[] MAGIC = "!<arch>\n".getBytes(StandardCharsets.US_ASCII);
+	private static final int HEADER_SIZE = 60;
+
+	private final ByteBuffer bytes;
+	private final List<String> names = new ArrayList<>();
+	private final List<int[]> ranges = new ArrayList<>();
+
+	/**
+	 * Reads the member headers of an archive
+	 * @param bytes the whole archive, starting at index 0; its position and limit are not used
+	 * @throws IOException if the buffer does not hold an archive, or a member header is
+	 * malformed
+	 */
+	public ArFile(ByteBuffer bytes) throws IOException {
+		this.bytes = bytes;
+		if (!isArchive(bytes)) {
+			throw new IOException("not an ar archive");
+		}
+
+		int longNames = -1;
+		int longNamesEnd = -1;
+		int position = MAGIC.length;
+		while (position + HEADER_SIZE <= bytes.capacity()) {
+			if (bytes.get(position + 58) != '`' || bytes.get(position + 59) != '\n') {
+				throw new IOException("malformed ar member header at " + position);
+			}
+			String name = getField(position, 16);
+			int data = position + HEADER_SIZE;
+			int size;
+			try {
+				size = Integer.parseInt(getField(position + 48, 10));
+			}
+			catch (NumberFormatException e) {
+				throw new IOException("malformed ar member size at " + position);
+			}
+			if (size < 0 || data + (long) size > bytes.capacity()) {
+				throw new IOException("truncated ar archive");
+			}
+			position = data + size + (size & 1);
+
+			if (name.equals("/") || name.equals("/SYM64/") || name.startsWith("__.SYMDEF")) {
+				continue;
+			}
+			if (name.equals("//")) {
+				longNames = data;
+				longNamesEnd = data + size;
+				continue;
+			}
+
+			if (name.startsWith("#1/")) {
+				// BSD: the name is stored in front of the data
+				int length = parseNameLength(name.substring(3), size);
+				int end = data;
+				while (end < data + length && bytes.get(end) != 0) {
+					end++;
+				}
+				name = getString(data, end);
+				data += length;
+				size -= length;
+			}
+			else if (name.length() > 1 && name.charAt(0) == '/') {
+				// GNU: an offset into the long name table, where names end with "/\n"
+				if (longNames < 0) {
+					throw new IOException("ar member name without a long name table");
+				}
+				int start = longNames + parseNameLength(name.substring(1), longNamesEnd - longNames);
+				int end = start;
+				while (end < longNamesEnd && bytes.get(end) != '\n') {
+					end++;
+				}
+				if (end > start && bytes.get(end - 1) == '/') {
+					end--;
+				}
+				name = getString(start, end);
+			}
+			else if (name.endsWith("/")) {
+				name = name.substring(0, name.length() - 1);
+			}
+
+			names.add(name);
+			ranges.add(new int[] { data, size });
+		}
+	}
+
+	/**
+	 * Checks if a buffer starts with the archive magic string
+	 * @param bytes the buffer, starting at index 0
+	 * @return true if it holds an ar archive
+	 */
+	public static boolean isArchive(ByteBuffer bytes) {
+		if (bytes.capacity() < MAGIC.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (bytes.get(i) != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getMemberCount() {
+		return names.size();
+	}
+
+	public String getMemberName(int member) {
+		return names.get(member);
+	}
+
+	/**
+	 * Returns the data of a member, without copying it
+	 * @param member the member index
+	 * @return a buffer whose index 0 is the first byte of the member
+	 */
+	public ByteBuffer getMember(int member) {
+		int[] range = ranges.get(member);
+		return bytes.slice(range[0], range[1]);
+	}
+
+	private String getField(int offset, int length) {
+		int end = offset + length;
+		while (end > offset && bytes.get(end - 1) == ' ') {
+			end--;
+		}
+		return getString(offset, end);
+	}
+
+	private String getString(int from, int to) {
+		byte[] text = new byte[to - from];
+		bytes.get(from, text);
+		return new String(text, StandardCharsets.ISO_8859_1);
+	}
+
+	private static int parseNameLength(String value, int limit) throws IOException {
+		try {
+			int length = Integer.parseInt(value);
+			if (length >= 0 && length <= limit) {
+				return length;
+			}
+		}
+		catch (NumberFormatException e) {
+			// reported below
+		}
+		throw new IOException("malformed ar member name '" + value + "'");
+	}
+}
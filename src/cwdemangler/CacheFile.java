@@ -0,0 +1,50 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A memory-mapped file of demangled signatures, {@link DiskCache} or {@link SharedCache}, as
+ * used by {@link StreamDemangler}: symbols are found as records in the mapping, whose values
+ * can be copied to the output without decoding them.
+ */
+interface CacheFile {
+
+	/**
+	 * Finds a symbol held in a buffer, counting a hit if it is found
+	 * @return the offset of its record in {@link #getMapped()}, or -1
+	 */
+	int find(ByteBuffer bytes, int from, int to);
+
+	/**
+	 * Returns the value of a symbol not found by {@link #find(ByteBuffer, int, int)} but held
+	 * elsewhere, counting a hit or a miss
+	 * @return the value, or null
+	 */
+	String getAdded(String mangled);
+
+	ByteBuffer getMapped();
+
+	int getValueStart(int record);
+
+	int getValueEnd(int record);
+
+	/**
+	 * Returns the value held by a record found with {@link #find(ByteBuffer, int, int)}
+	 */
+	String getValue(int record, String mangled);
+
+	void put(String mangled, String value);
+}
@@ -14,35 +14,165 @@
 
 package cwdemangler;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class CodeWarriorDemangler {
 	
-	public static void main(String[] args)
+	public static void main(String[] args) throws IOException
 	{
-		if(args.length == 0)
-		{
-			System.out.println("cwd: missing mangled function operand");
-			System.out.println("Try 'cwd --help' for more information.");
-			return;
-		}
+		boolean filter = false;
+		boolean map = false;
+		boolean elf = false;
+		boolean server = false;
+		SocketAddress address = null;
+		DemangleCache cache = null;
+		Path cacheFile = null;
+		Path sharedCacheFile = null;
+		boolean stats = false;
+		int jobs = 1;
+		List<Path> files = new ArrayList<>();
 		
-		if(args[0].startsWith("--"))
+		int argIndex = 0;
+		for(; argIndex < args.length && args[argIndex].startsWith("--"); argIndex++)
 		{
-			String option = args[0].substring(2);
+			String option = args[argIndex].substring(2);
 			
-			if(option.equals("help"))
+			if(option.isEmpty())
+			{
+				argIndex++;
+				break;
+			}
+			else if(option.equals("filter"))
+			{
+				filter = true;
+			}
+			else if(option.equals("map"))
+			{
+				map = true;
+			}
+			else if(option.equals("elf"))
+			{
+				elf = true;
+			}
+			else if(option.equals("server"))
+			{
+				server = true;
+			}
+			else if(option.startsWith("socket="))
+			{
+				address = DemanglerServer.parseAddress(option.substring(7));
+			}
+			else if(option.startsWith("file="))
+			{
+				files.add(Path.of(option.substring(5)));
+			}
+			else if(option.startsWith("jobs="))
+			{
+				try
+				{
+					jobs = Integer.parseInt(option.substring(5));
+				}
+				catch(NumberFormatException e)
+				{
+					jobs = 0;
+				}
+				
+				if(jobs < 1)
+				{
+					System.out.println("cwd: invalid number of jobs '" + option.substring(5) + "'");
+					return;
+				}
+			}
+			else if(option.startsWith("cache="))
 			{
-				System.out.println("Usage: cwd [STRING]...");
-				System.out.println("   or: cwd OPTION");
+				String size = option.substring(6);
+				long multiplier = 1;
+				if(size.endsWith("K") || size.endsWith("M") || size.endsWith("G"))
+				{
+					multiplier = 1L << (10 * ("KMG".indexOf(size.charAt(size.length() - 1)) + 1));
+					size = size.substring(0, size.length() - 1);
+				}
+				
+				long maximum;
+				try
+				{
+					maximum = Long.parseLong(size);
+				}
+				catch(NumberFormatException e)
+				{
+					maximum = 0;
+				}
+				
+				if(maximum < 1)
+				{
+					System.out.println("cwd: invalid cache size '" + option.substring(6) + "'");
+					return;
+				}
+				cache = multiplier == 1 ? DemangleCache.withMaximumEntries(maximum)
+						: DemangleCache.withMaximumBytes(maximum * multiplier);
+			}
+			else if(option.startsWith("cache-file="))
+			{
+				cacheFile = Path.of(option.substring(11));
+			}
+			else if(option.startsWith("shared-cache="))
+			{
+				sharedCacheFile = Path.of(option.substring(13));
+			}
+			else if(option.equals("stats"))
+			{
+				stats = true;
+			}
+			else if(option.equals("help"))
+			{
+				System.out.println("Usage: cwd [OPTION]... [STRING]...");
 				System.out.println("Output a demangled CodeWarrior symbol name for all specified STRING(s).");
+				System.out.println("With no STRING, or when STRING is -, read one symbol per line from standard input.");
+				System.out.println("Names that are not mangled are output unchanged.");
 				System.out.println();
+				System.out.println("--file=FILE read one symbol per line from FILE instead of standard input");
+				System.out.println("--filter    demangle the symbols found anywhere in the text read from standard input or FILE");
+				System.out.println("--map       demangle the symbol column of a CodeWarrior linker map read from standard input or FILE");
+				System.out.println("--elf       list the symbols of a big-endian ELF object or executable read from standard input,");
+				System.out.println("            or of the objects in FILE, which may be an ar archive or a directory to search");
+				System.out.println("--server    keep running and demangle for clients connecting to the socket, one symbol per line");
+				System.out.println("--socket=ADDRESS");
+				System.out.println("            the Unix domain socket path, or localhost TCP port, of the server; symbols to demangle");
+				System.out.println("            from arguments or standard input are sent to a server when one is running there");
+				System.out.println("--jobs=N    demangle on N threads, keeping the output in input order; a server uses");
+				System.out.println("            one thread per processor unless told otherwise");
+				System.out.println("--cache=SIZE");
+				System.out.println("            remember the last SIZE symbols demangled, or SIZE bytes of them with a K, M or G suffix,");
+				System.out.println("            keeping those that come up most often");
+				System.out.println("--cache-file=FILE");
+				System.out.println("            keep the symbols demangled in FILE, and look them up there in later runs");
+				System.out.println("--shared-cache=FILE");
+				System.out.println("            share the symbols demangled with other cwd processes running at the same time,");
+				System.out.println("            such as the jobs of a parallel build, through FILE");
+				System.out.println("--stats     print cache statistics to standard error when done");
 				System.out.println("--help      display this help and exit");
 				System.out.println("--version   output version information and exit");
 				System.out.println();
 				System.out.println("cwd online help: <https://discord.gg/NTyb4sy>");
+				return;
 			}
-			if(option.equals("version"))
+			else if(option.equals("version"))
 			{
 				System.out.println("cwd (CodeWarrior demangler) 1.0");
 				System.out.println("Copyright (C) 2021 TheSunCat");
@@ -55,29 +185,314 @@ public class CodeWarriorDemangler {
 				System.out.println("limitations under the License.");
 				System.out.println();
 				System.out.println("Written by TheSunCat. Demangling by Cuyler36.");
+				return;
+			}
+			else
+			{
+				System.out.println("cwd: unrecognized option '" + args[argIndex] + "'");
+				System.out.println("Try 'cwd --help' for more information.");
+				return;
 			}
+		}
+		
+		List<String> symbols = Arrays.asList(args).subList(argIndex, args.length);
+		if(address == null)
+			address = DemanglerServer.getDefaultAddress();
+		
+		// Plain symbols are demangled by a running server, which is warm already, unless options
+		// that only take effect in this process ask for them to be demangled here
+		if(!server && files.isEmpty() && !filter && !map && !elf && cache == null && cacheFile == null &&
+				sharedCacheFile == null && !stats && jobs == 1)
+		{
+			InputStream in;
+			if(symbols.isEmpty() || (symbols.size() == 1 && symbols.get(0).equals("-")))
+				in = new FileInputStream(FileDescriptor.in);
+			else
+				in = new ByteArrayInputStream((String.join("\n", symbols) + "\n").getBytes(StandardCharsets.ISO_8859_1));
 			
+			try
+			{
+				if(DemanglerServer.forward(address, in, new FileOutputStream(FileDescriptor.out)))
+					return;
+			}
+			catch(IOException e)
+			{
+				// Part of the input is gone, so the rest cannot be demangled here instead
+				System.err.println("cwd: " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		
+		DiskCache diskCache = null;
+		if(cacheFile != null)
+		{
+			try
+			{
+				diskCache = new DiskCache(cacheFile);
+			}
+			catch(IOException e)
+			{
+				System.err.println("cwd: cannot open cache file '" + cacheFile + "'");
+				return;
+			}
+		}
+		
+		SharedCache sharedCache = null;
+		if(sharedCacheFile != null)
+		{
+			if(diskCache != null)
+			{
+				System.out.println("cwd: --cache-file and --shared-cache cannot be combined");
+				diskCache.close();
+				return;
+			}
+			
+			try
+			{
+				sharedCache = new SharedCache(sharedCacheFile);
+			}
+			catch(IOException e)
+			{
+				System.err.println("cwd: cannot open shared cache '" + sharedCacheFile + "'");
+				return;
+			}
+		}
+		
+		if(server)
+		{
+			// Batches from different clients are demangled in parallel even without --jobs
+			var pool = new ForkJoinPool(jobs > 1 ? jobs : Runtime.getRuntime().availableProcessors());
+			try
+			{
+				var daemon = new DemanglerServer(address, pool);
+				daemon.setCache(cache);
+				daemon.setDiskCache(diskCache);
+				if(sharedCache != null)
+					daemon.setSharedCache(sharedCache);
+				DemangleCache serverCache = cache;
+				DiskCache serverDiskCache = diskCache;
+				SharedCache serverSharedCache = sharedCache;
+				boolean printStats = stats;
+				Runtime.getRuntime().addShutdownHook(new Thread(() ->
+				{
+					try
+					{
+						daemon.close();
+						if(serverDiskCache != null)
+							serverDiskCache.close();
+						if(serverSharedCache != null)
+							serverSharedCache.close();
+						if(printStats)
+							printStats(serverCache, serverDiskCache, serverSharedCache);
+					}
+					catch(IOException e)
+					{
+						// exiting anyway
+					}
+				}));
+				daemon.serve();
+			}
+			catch(IOException e)
+			{
+				System.err.println("cwd: " + e.getMessage());
+			}
+			finally
+			{
+				pool.shutdown();
+			}
+			return;
+		}
+		
+		if(!files.isEmpty() || filter || map || elf || symbols.isEmpty() || (symbols.size() == 1 && symbols.get(0).equals("-")))
+		{
+			ForkJoinPool pool = jobs > 1 ? new ForkJoinPool(jobs) : null;
+			try
+			{
+				var out = new FileOutputStream(FileDescriptor.out);
+				var demangler = new StreamDemangler(out, pool);
+				demangler.setCache(cache);
+				demangler.setDiskCache(diskCache);
+				if(sharedCache != null)
+					demangler.setSharedCache(sharedCache);
+				if(elf && !files.isEmpty())
+				{
+					var scanner = new SymbolScanner(out, pool);
+					scanner.setCache(cache);
+					scanner.setDiskCache(diskCache);
+					if(sharedCache != null)
+						scanner.setSharedCache(sharedCache);
+					scanner.scan(files);
+					for(String error : scanner.getErrors())
+						System.err.println("cwd: " + error);
+				}
+				else if(!files.isEmpty())
+				{
+					for(Path file : files)
+					{
+						try
+						{
+							if(map)
+								demangler.demangleMap(file);
+							else if(filter)
+								demangler.filterText(file);
+							else
+								demangler.demangleLines(file);
+						}
+						catch(NoSuchFileException | AccessDeniedException e)
+						{
+							System.err.println("cwd: cannot read '" + file + "'");
+						}
+					}
+				}
+				else
+				{
+					var in = new FileInputStream(FileDescriptor.in);
+					if(elf)
+					{
+						try
+						{
+							demangler.demangleSymbols(new ElfFile(ByteBuffer.wrap(in.readAllBytes())));
+							demangler.flush();
+						}
+						catch(ElfException e)
+						{
+							System.err.println("cwd: " + e.getMessage());
+						}
+					}
+					else if(map)
+						demangler.demangleMap(in);
+					else if(filter)
+						demangler.filterText(in);
+					else
+						demangler.demangleLines(in);
+				}
+			}
+			finally
+			{
+				if(pool != null)
+					pool.shutdown();
+				if(diskCache != null)
+					diskCache.close();
+				if(sharedCache != null)
+					sharedCache.close();
+			}
+			if(stats)
+				printStats(cache, diskCache, sharedCache);
 			return;
 		}
 		
-		for(String s : args)
-			System.out.println(demangleSymbol(s).getSignature());
+		List<DemangledObject> demangled = demangleAll(symbols, jobs);
+		for(int i = 0; i < symbols.size(); i++)
+			System.out.println(demangled.get(i) == null ? symbols.get(i) : demangled.get(i).getSignature());
 	}
-    
-    public String str;
+	
+	private static void printStats(DemangleCache cache, DiskCache diskCache, SharedCache sharedCache)
+	{
+		if(cache == null && diskCache == null && sharedCache == null)
+		{
+			System.err.println("cwd: no cache");
+			return;
+		}
+		if(cache != null)
+			System.err.println("cwd: cache: " + cache.size() + " entries, " + cache.getHitCount() + " hits, " +
+					cache.getMissCount() + " misses, " + cache.getEvictionCount() + " evictions");
+		if(diskCache != null)
+			System.err.println("cwd: cache file: " + diskCache.size() + " entries, " + diskCache.getHitCount() +
+					" hits, " + diskCache.getMissCount() + " misses");
+		if(sharedCache != null)
+			System.err.println("cwd: shared cache: " + sharedCache.size() + " entries, " + sharedCache.getHitCount() +
+					" hits, " + sharedCache.getMissCount() + " misses; all processes: " +
+					sharedCache.getTotalHitCount() + " hits, " + sharedCache.getTotalMissCount() + " misses");
+	}
+
+    private static final ThreadLocal<CodeWarriorDemangler> LOCAL_PARSER =
+        ThreadLocal.withInitial(CodeWarriorDemangler::new);
+
+    private CharSequence input;
+    private int pos;
+    private int end;
     public boolean containsInvalidSpecifier;
 
+    // Where the name of the last classified symbol lies.
+    private int nameStart;
+    private int nameEnd;
+
+    // The number of the next function pointer, counted from 0 in each symbol so that the same
+    // symbol always gets the same FuncDef names, whichever thread or cache demangles it.
+    private int functionPointerCount;
+
+    // Scratch state kept between symbols so a reused parser does not reallocate it.
+    private final ArrayList<String> qualifiedNames = new ArrayList<>();
+    private final Latin1CharSequence byteView = new Latin1CharSequence();
+
     public CodeWarriorDemangler() { } /* Empty constructor for DemanglerCmd::applyTo */
 
-    public CodeWarriorDemangler(String g) {
-        this.str = g;
+    public CodeWarriorDemangler(CharSequence g) {
+        this(g, 0, g.length());
     }
 
-    public boolean isEmpty() { return this.str == null || this.str.length() < 1; }
-    public String cw(int n) { String g = this.str.substring(0, n); this.str = this.str.substring(n); return g; }
-    public char hd() { return isEmpty() ? 0 : this.str.charAt(0); }
-    public boolean isConstFunc() { return (isEmpty() || this.str.length() < 2) ? false : this.str.startsWith("CF") || this.str.startsWith("cF"); }
-    public char tk() { char hd = this.hd(); cw(1); return hd; }
+    public CodeWarriorDemangler(CharSequence g, int start, int end) {
+        reset(g, start, end);
+    }
+
+    /**
+     * Returns the parser owned by the calling thread.  Batch callers can use it to demangle any
+     * number of symbols without allocating a parser per symbol.
+     * @return the calling thread's parser
+     */
+    public static CodeWarriorDemangler forCurrentThread() {
+        return LOCAL_PARSER.get();
+    }
+
+    /**
+     * Points this parser at a new input, discarding any state left from the previous one.
+     * @param g the mangled text to parse
+     * @return this parser
+     */
+    public CodeWarriorDemangler reset(CharSequence g) {
+        return reset(g, 0, g.length());
+    }
+
+    /**
+     * Points this parser at the range {@code [start, end)} of a new input, discarding any state
+     * left from the previous one.
+     * @param g the mangled text to parse
+     * @param start the index to start parsing at
+     * @param end the index to stop parsing at
+     * @return this parser
+     */
+    public CodeWarriorDemangler reset(CharSequence g, int start, int end) {
+        this.input = g;
+        this.pos = start;
+        this.end = end;
+        this.containsInvalidSpecifier = false;
+        return this;
+    }
+
+    public boolean isEmpty() { return this.input == null || this.pos >= this.end; }
+    public String cw(int n) {
+        int start = skip(n);
+        return this.input.subSequence(start, this.pos).toString();
+    }
+    private int skip(int n) {
+        if (n < 0 || n > this.end - this.pos)
+            throw new StringIndexOutOfBoundsException("begin " + this.pos + ", end " + (this.pos + n) + ", length " + this.end);
+        int start = this.pos;
+        this.pos += n;
+        return start;
+    }
+    public char hd() { return isEmpty() ? 0 : this.input.charAt(this.pos); }
+    public boolean isConstFunc() {
+        if (isEmpty() || this.end - this.pos < 2)
+            return false;
+        char c = this.input.charAt(this.pos);
+        return (c == 'C' || c == 'c') && this.input.charAt(this.pos + 1) == 'F';
+    }
+    public char tk() {
+        if (isEmpty())
+            throw new StringIndexOutOfBoundsException("begin 1, end " + (this.end - this.pos) + ", length " + (this.end - this.pos));
+        return this.input.charAt(this.pos++);
+    }
 
     public int nextInteger(char initial) {
         int value = initial - '0';
@@ -113,99 +528,528 @@ public class CodeWarriorDemangler {
         return template;
     }
 
-    private void demangleTemplates(DemangledDataType o) {
-        var name = o.getName();
-        var lb = name.indexOf('<');
-        if (lb < 0)
-            return;
-        var rb = name.lastIndexOf('>');
-        var parser = new CodeWarriorDemangler(name.substring(lb, rb + 1));
-        var template = parser.nextTemplate();
-        o.setName(name.substring(0, lb));
+    /**
+     * Parses the template argument list starting at {@code lb} of the given text with this
+     * parser, then restores the parser to where it was.  The list ends at the first '>' outside
+     * its arguments, which must come before {@code end}; nested names are skipped by their
+     * length, so the text is never scanned for the '>' beforehand.
+     */
+    private DemangledTemplate nextTemplate(CharSequence text, int lb, int end) {
+        var savedInput = this.input;
+        var savedPos = this.pos;
+        var savedEnd = this.end;
+        var savedInvalid = this.containsInvalidSpecifier;
+        try {
+            reset(text, lb, end);
+            return nextTemplate();
+        } finally {
+            this.input = savedInput;
+            this.pos = savedPos;
+            this.end = savedEnd;
+            this.containsInvalidSpecifier = savedInvalid;
+        }
+    }
+
+    /**
+     * Parses a name of the given length at the cursor.  A template argument list inside the
+     * name is parsed in place from the input rather than from a copy of the name.
+     */
+    private DemangledDataType nextName(int length) {
+        int nameStart = this.pos;
+        int nameEnd = nameStart + length;
+        int lb = length < 0 || nameEnd > this.end ? -1 : indexOf(this.input, '<', nameStart, nameEnd);
+        if (lb < 0) {
+            String val = cw(length);
+            return new DemangledDataType(null, val, val);
+        }
+
+        var template = nextTemplate(this.input, lb, nameEnd);
+        var name = this.input.subSequence(nameStart, lb).toString();
+        this.pos = nameEnd;
+
+        var o = new DemangledDataType(null, name, name);
         for (var param : template.getParameters()) {
             if (param.isPrimitive()) {
-                o.setName(name.substring(0, lb) + template.toTemplate());
+                o.setName(name + template.toTemplate());
                 break;
             }
         }
         
         o.setTemplate(template);
+        return o;
     }
 
-    private static void demangleTemplates(DemangledFunction o) {
-        var name = o.getName();
-        var lb = name.indexOf('<');
-        if (lb < 0)
+    /**
+     * Names the function after {@code [nameStart, nameEnd)} of the given text, parsing a
+     * template argument list in it in place.
+     */
+    private void demangleTemplates(DemangledFunction o, CharSequence text, int nameStart, int nameEnd) {
+        var lb = indexOf(text, '<', nameStart, nameEnd);
+        if (lb < 0) {
+            o.setName(text.subSequence(nameStart, nameEnd).toString());
             return;
-        var rb = name.lastIndexOf('>');
-        var parser = new CodeWarriorDemangler(name.substring(lb, rb + 1));
-        o.setName(name.substring(0, lb));
-        o.setTemplate(parser.nextTemplate());
+        }
+        var template = nextTemplate(text, lb, nameEnd);
+        o.setName(text.subSequence(nameStart, lb).toString());
+        o.setTemplate(template);
     }
 
     public static DemangledObject demangleSymbol(String symbolName) {
+        return demangleSymbol((CharSequence) symbolName);
+    }
+
+    /**
+     * Demangles an ASCII or ISO-8859-1 encoded symbol without decoding it into a String first.
+     * @param bytes the buffer holding the symbol
+     * @param offset the index of the first byte of the symbol
+     * @param length the length of the symbol in bytes
+     * @return the demangled symbol, or null if it is not mangled
+     */
+    public static DemangledObject demangleSymbol(byte[] bytes, int offset, int length) {
+        return forCurrentThread().demangle(ByteBuffer.wrap(bytes), offset, length);
+    }
+
+    /**
+     * Demangles an ASCII or ISO-8859-1 encoded symbol without decoding it into a String first.
+     * The position and limit of the buffer are left untouched.
+     * @param buffer the buffer holding the symbol
+     * @param offset the absolute index of the first byte of the symbol
+     * @param length the length of the symbol in bytes
+     * @return the demangled symbol, or null if it is not mangled
+     */
+    public static DemangledObject demangleSymbol(ByteBuffer buffer, int offset, int length) {
+        return forCurrentThread().demangle(buffer, offset, length);
+    }
+
+    /**
+     * Demangles a symbol read directly from the given character sequence. The sequence is only
+     * copied into a String once it is known to hold a mangled name.
+     * @param symbol the mangled symbol
+     * @return the demangled symbol, or null if it is not mangled
+     */
+    public static DemangledObject demangleSymbol(CharSequence symbol) {
+        return forCurrentThread().demangle(symbol);
+    }
+
+    /**
+     * Demangles many symbols on a fork-join pool.  The list is split into ranges that idle
+     * workers steal from each other; each worker uses its own parser and writes its results
+     * straight into their slots, so the order of the input is kept without any merging.
+     *
+     * <p>Unlike {@link #demangleSymbol(String)}, a symbol that fails to demangle gives null, like
+     * a symbol that is not mangled, so that one bad symbol does not lose the whole batch.
+     * @param symbols the mangled symbols
+     * @param parallelism the number of worker threads; 1 demangles on the calling thread
+     * @return the demangled symbols, in the order of the input
+     */
+    public static List<DemangledObject> demangleAll(List<String> symbols, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism " + parallelism + " is not positive");
+
+        var results = new DemangledObject[symbols.size()];
+        var task = new DemangleTask(symbols, results, 0, results.length);
+        if (parallelism == 1 || results.length <= DemangleTask.THRESHOLD) {
+            task.compute();
+        } else {
+            var pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(task);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private static final class DemangleTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // default
+        static final int THRESHOLD = 512;
+
+        private final List<String> symbols;
+        private final DemangledObject[] results;
+        private final int from;
+        private final int to;
+
+        DemangleTask(List<String> symbols, DemangledObject[] results, int from, int to) {
+            this.symbols = symbols;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD && getPool() != null) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new DemangleTask(symbols, results, from, mid),
+                    new DemangleTask(symbols, results, mid, to));
+                return;
+            }
+
+            var parser = forCurrentThread();
+            for (int i = from; i < to; i++) {
+                try {
+                    results[i] = parser.demangle(symbols.get(i));
+                } catch (RuntimeException e) {
+                    results[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Demangles an ASCII or ISO-8859-1 encoded symbol with this parser, reusing its byte view.
+     * @param buffer the buffer holding the symbol
+     * @param offset the absolute index of the first byte of the symbol
+     * @param length the length of the symbol in bytes
+     * @return the demangled symbol, or null if it is not mangled
+     */
+    public DemangledObject demangle(ByteBuffer buffer, int offset, int length) {
+        return demangle(byteView.reset(buffer, offset, length));
+    }
+
+    /**
+     * Demangles a symbol with this parser.  The parser is reset first, so it can be reused for
+     * any number of symbols, but not by more than one thread at a time.  Function pointers are
+     * named {@code FuncDef0}, {@code FuncDef1} and so on in the order they occur in the symbol.
+     * @param symbol the mangled symbol
+     * @return the demangled symbol, or null if it is not mangled
+     */
+    public DemangledObject demangle(CharSequence symbol) {
+        try {
+            this.functionPointerCount = 0;
+            return parseSymbol(symbol);
+        } finally {
+            // Do not keep the caller's buffer reachable from a pooled parser.
+            reset(null, 0, 0);
+        }
+    }
+
+    /**
+     * Decides what kind of symbol this is in a single pass that allocates nothing for a
+     * well-formed symbol, so batch callers can skip symbols that cannot be demangled.  A {@link MangledKind#PLAIN} symbol is
+     * never demangled; any other kind is only likely to be.  Afterwards, {@link #getNameStart()}
+     * and {@link #getNameEnd()} locate the function or member name within the symbol.
+     * @param symbol the symbol to classify
+     * @return the kind of symbol
+     */
+    public MangledKind classify(CharSequence symbol) {
+        int length = symbol.length();
+        this.nameStart = 0;
+        this.nameEnd = 0;
+
         // If it doesn't have a __, then it's not mangled.
-        if (!symbolName.contains("__"))
-            return null;
+        if (indexOfDunder(symbol, 0) < 0)
+            return MangledKind.PLAIN;
 
         // If we start with "@x@", then we're a virtual thunk, with "x" being the offset to the this pointer.
-        boolean isThunk = false;
-        if (symbolName.startsWith("@")) {
-            int thunkAddrIdx = symbolName.lastIndexOf('@');
-            symbolName = symbolName.substring(thunkAddrIdx + 1);
-            isThunk = true;
-        }
+        int start = 0;
+        if (symbol.charAt(0) == '@')
+            start = lastIndexOf(symbol, '@') + 1;
 
-        int firstDunder = symbolName.indexOf("__", 1);
+        int firstDunder = indexOfDunder(symbol, start + 1);
         // If the symbol starts with __, exit.
         if (firstDunder < 0)
-            return null;
+            return MangledKind.PLAIN;
         
         // Ensure that any trailing underscores in the function name are accounted for
-        while (symbolName.charAt(firstDunder + 2) == '_') {
+        while (firstDunder + 2 < length && symbol.charAt(firstDunder + 2) == '_') {
             firstDunder++;
         }
+
+        // After the dunder comes the class, if it exists, followed by 'F', followed by parameters.
+        int p = firstDunder + 2;
+        if (p >= length)
+            return MangledKind.PLAIN;
+
+        boolean isFunction;
+        if (symbol.charAt(p) == 'F') {
+            isFunction = true;
+        } else {
+            p = skipParentType(symbol, p);
+            if (p < 0)
+                return MangledKind.PLAIN;
+
+            isFunction = p < length && (symbol.charAt(p) == 'F' ||
+                ((symbol.charAt(p) == 'C' || symbol.charAt(p) == 'c') && p + 1 < length && symbol.charAt(p + 1) == 'F'));
+            if (!isFunction && p != length)
+                return MangledKind.PLAIN;
+        }
+
+        this.nameStart = start;
+        this.nameEnd = firstDunder;
+        if (!isFunction)
+            return MangledKind.DATA_MEMBER;
+        if (start > 0)
+            return MangledKind.THUNK;
+        if (regionEquals(symbol, start, firstDunder, "__ct"))
+            return MangledKind.CONSTRUCTOR;
+        if (regionEquals(symbol, start, firstDunder, "__dt"))
+            return MangledKind.DESTRUCTOR;
+        if (demangleSpecialOperator(symbol, start, firstDunder) != null)
+            return MangledKind.OPERATOR;
+        return MangledKind.FUNCTION;
+    }
+
+    /**
+     * Returns where the function or member name of the last classified symbol starts, which is
+     * past the offsets of a thunk.
+     * @return the index of the first character of the name
+     */
+    public int getNameStart() {
+        return nameStart;
+    }
+
+    /**
+     * Returns where the function or member name of the last classified symbol ends, which is
+     * where the dunder before the class and parameter encoding starts.
+     * @return the index just past the name
+     */
+    public int getNameEnd() {
+        return nameEnd;
+    }
+
+    /**
+     * Skips the class of a symbol at the given index.  The parser reads it with
+     * {@link #nextType()}, which takes any type, so it is skipped with the same grammar rather
+     * than as a class name; invalid type codes are left for the parser to reject.
+     * @return the index just past the type, or -1 if {@link #nextType()} would fail on it
+     */
+    private int skipParentType(CharSequence symbol, int p) {
+        var savedInput = this.input;
+        var savedPos = this.pos;
+        var savedEnd = this.end;
+        var savedInvalid = this.containsInvalidSpecifier;
+        try {
+            reset(symbol, p, symbol.length());
+            skipType();
+            return this.pos;
+        } catch (RuntimeException | AssertionError e) {
+            // nextType() fails on it as well
+            return -1;
+        } finally {
+            this.input = savedInput;
+            this.pos = savedPos;
+            this.end = savedEnd;
+            this.containsInvalidSpecifier = savedInvalid;
+        }
+    }
+
+    /**
+     * Records where the name, class name components, template arguments and parameter types of
+     * a symbol lie, without building demangled objects or copying any names.
+     * @param symbol the mangled symbol
+     * @param spans receives the spans, replacing those of the previous symbol
+     * @return true if the symbol is mangled and contains no invalid type codes
+     */
+    public boolean scan(CharSequence symbol, SymbolSpans spans) {
+        spans.reset(symbol);
+        try {
+            var kind = classify(symbol);
+            if (kind == MangledKind.PLAIN)
+                return false;
+
+            reset(symbol, this.nameEnd + 2, symbol.length());
+            scanName(this.nameStart, this.nameEnd, SymbolSpans.Kind.NAME, spans);
+
+            if (!hasFunction())
+                scanClassName(spans);
+
+            if (kind != MangledKind.DATA_MEMBER) {
+                // Mirrors nextFunction, which only consumes the F after a C.
+                if (tk() == 'C')
+                    tk();
+
+                while (!isEmpty()) {
+                    var spanKind = SymbolSpans.Kind.PARAMETER;
+                    if (hd() == '_') {
+                        tk();
+                        spanKind = SymbolSpans.Kind.RETURN_TYPE;
+                    }
+                    int typeStart = this.pos;
+                    skipType();
+                    spans.add(spanKind, typeStart, this.pos);
+                }
+            }
+
+            if (containsInvalidSpecifier) {
+                spans.reset(symbol);
+                return false;
+            }
+
+            spans.setMangledKind(kind);
+            return true;
+        } finally {
+            reset(null, 0, 0);
+        }
+    }
+
+    private void scanClassName(SymbolSpans spans) {
+        if (hd() != 'Q' && !Character.isDigit(hd())) {
+            // Any other type is taken as the class, as a whole
+            int start = this.pos;
+            skipType();
+            spans.add(SymbolSpans.Kind.NAMESPACE, start, this.pos);
+            return;
+        }
+
+        int compCount = 1;
+        if (hd() == 'Q') {
+            tk();
+            compCount = tk() - '0';
+        }
+
+        for (int i = 0; i < compCount; i++) {
+            int start = skip(nextInteger());
+            if (i == compCount - 1)
+                scanName(start, this.pos, SymbolSpans.Kind.NAMESPACE, spans);
+            else
+                spans.add(SymbolSpans.Kind.NAMESPACE, start, this.pos);
+        }
+    }
+
+    /**
+     * Records the name in {@code [start, end)} of the input, minus its template argument list,
+     * and then each of its template arguments.
+     */
+    private void scanName(int start, int end, SymbolSpans.Kind kind, SymbolSpans spans) {
+        int lb = indexOf(this.input, '<', start, end);
+        spans.add(kind, start, lb < 0 ? end : lb);
+        if (lb < 0)
+            return;
+
+        var savedPos = this.pos;
+        var savedEnd = this.end;
+        var savedInvalid = this.containsInvalidSpecifier;
+        try {
+            this.pos = lb;
+            this.end = end;
+            while (tk() != '>') {
+                int argStart = this.pos;
+                skipType();
+                spans.add(SymbolSpans.Kind.TEMPLATE_ARGUMENT, argStart, this.pos);
+            }
+        } finally {
+            this.pos = savedPos;
+            this.end = savedEnd;
+            this.containsInvalidSpecifier = savedInvalid;
+        }
+    }
+
+    /**
+     * Moves the cursor past one type, following the same grammar as {@link #nextType()}.
+     */
+    private void skipType() {
+        char tok = tk();
+
+        switch (tok) {
+            case '0': case '1': case '2': case '3': case '4':
+            case '5': case '6': case '7': case '8': case '9':
+                skipNamedType(tok);
+                return;
+            case 'Q': {
+                int compCount = tk() - '0';
+                for (int i = 0; i < compCount; i++)
+                    skip(nextInteger());
+                return;
+            }
+            case 'F':
+                while (!isEmpty()) {
+                    if (hd() == '_') {
+                        tk();
+                        skipType();
+                        return;
+                    }
+                    skipType();
+                }
+                return;
+            case 'P': case 'R': case 'C': case 'U': case 'S':
+                skipType();
+                return;
+            case 'A':
+                nextInteger();
+                tk();
+                skipType();
+                return;
+            case 'M':
+                skip(nextInteger());
+                skipType();
+                return;
+            case 'i': case 'l': case 'x': case 'b': case 'c': case 's':
+            case 'f': case 'd': case 'w': case 'v': case 'e':
+                return;
+            default:
+                if (Character.isDigit(tok)) {
+                    skipNamedType(tok);
+                    return;
+                }
+                this.containsInvalidSpecifier = this.containsInvalidSpecifier || tok != '_';
+        }
+    }
+
+    private void skipNamedType(char tok) {
+        int value = nextInteger(tok);
+        if (hd() == '>' || hd() == ',')
+            return; // Literal integer (template)
+        skip(value);
+    }
+
+    private DemangledObject parseSymbol(CharSequence symbol) {
+        if (classify(symbol) == MangledKind.PLAIN)
+            return null;
+
+        int length = symbol.length();
+        int start = this.nameStart;
+        int firstDunder = this.nameEnd;
+        boolean isThunk = start > 0;
+
+        String symbolName = symbol.subSequence(start, length).toString();
+        firstDunder -= start;
         
-        String parameters = symbolName.substring(firstDunder + 2);
         // After the dunder comes the class, if it exists, followed by 'F', followed by parameters.
-        var demangler = new CodeWarriorDemangler(parameters);
+        reset(symbol, start + firstDunder + 2, length);
 
         DemangledDataType parentClass = null;
-        if (!demangler.hasFunction())
-            parentClass = demangler.nextType();
+        if (!hasFunction())
+            parentClass = nextType();
 
-        var isConstFunc = demangler.isConstFunc();
-        if (isConstFunc || demangler.hasFunction()) {
-            var d = demangler.nextFunction(parentClass, symbolName);
+        var isConstFunc = isConstFunc();
+        if (isConstFunc || hasFunction()) {
+            var d = nextFunction(parentClass, symbolName);
 
             if (isThunk)
                 d.setThunk(true);
 
-            String functionName = symbolName.substring(0, firstDunder);
-            String operatorName = demangleSpecialOperator(functionName);
+            String operatorName = demangleSpecialOperator(symbol, start, start + firstDunder);
     
             if (operatorName != null) {
                 d.setOverloadedOperator(true);
                 d.setName(operatorName);
             } else {
-                if (functionName.equals("__ct"))
+                CharSequence functionName = symbol;
+                int nameStart = start;
+                int nameEnd = start + firstDunder;
+                if (regionEquals(symbol, nameStart, nameEnd, "__ct"))
                     functionName = parentClass.getName();
-                else if (functionName.equals("__dt"))
+                else if (regionEquals(symbol, nameStart, nameEnd, "__dt"))
                     functionName = "~" + parentClass.getName();
+
+                if (functionName != symbol) {
+                    nameStart = 0;
+                    nameEnd = functionName.length();
+                }
     
-                d.setName(functionName);
-    
-                CodeWarriorDemangler.demangleTemplates(d);
+                demangleTemplates(d, functionName, nameStart, nameEnd);
             }
             
-            if (demangler.containsInvalidSpecifier)
+            if (containsInvalidSpecifier)
                 return null;
             
             return d;
         }
         
         // It could be a member or vtable
-        if (demangler.isEmpty()) {
+        if (isEmpty()) {
             var name = symbolName.substring(0, firstDunder);
             var member = new DemangledVariable(symbolName, name, name);
             
@@ -226,6 +1070,44 @@ public class CodeWarriorDemangler {
         return null;
     }
 
+    private static int indexOfDunder(CharSequence s, int from) {
+        for (int i = from, n = s.length() - 1; i < n; i++) {
+            if (s.charAt(i) == '_' && s.charAt(i + 1) == '_')
+                return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(CharSequence s, char c) {
+        return lastIndexOf(s, c, 0, s.length());
+    }
+
+    static int indexOf(CharSequence s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c)
+                return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(CharSequence s, char c, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (s.charAt(i) == c)
+                return i;
+        }
+        return -1;
+    }
+
+    static boolean regionEquals(CharSequence s, int from, int to, String str) {
+        if (to - from != str.length())
+            return false;
+        for (int i = 0; i < str.length(); i++) {
+            if (s.charAt(from + i) != str.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
     public DemangledFunction nextFunction(DemangledDataType parentClass, String mangledName) {
         char tok = tk();
 
@@ -243,7 +1125,7 @@ public class CodeWarriorDemangler {
 
         // Parse parameters.
         while (true) {
-            if (this.str.length() == 0)
+            if (isEmpty())
                 break;
 
             tok = hd();
@@ -273,64 +1155,11 @@ public class CodeWarriorDemangler {
         char tok = tk();
 
         if (Character.isDigit(tok)) {
-            // Name or literal integer. Literal integers can show up in template parameters.
-            int value = nextInteger(tok);
-            if (hd() == '>' || hd() == ',') {
-                // Literal integer (template)
-                return new DemangledDataType(null, "" + value, "" + value);
-            }
-            // Name.
-            String val = cw(value);
-            var d = new DemangledDataType(null, val, val);
-            demangleTemplates(d);
-            return d;
+            return nextNamedType(tok);
         } else if (tok == 'Q') {
-            // Qualified name.
-            int compCount = tk() - '0';
-
-            var names = new ArrayList<String>();
-            for (var i = 0; i < compCount; i++) {
-                int length = nextInteger();
-                names.add(cw(length));
-            }
-
-            var val = names.get(compCount - 1);
-            var d = new DemangledDataType(null, val, val);
-            demangleTemplates(d);
-            
-            // Create namespaces
-            DemangledType namespaceType = new DemangledType(null, names.get(0), names.get(0)); // Top level
-            for (String ns : names.subList(1, names.size() - 1))
-            {
-                DemangledType subNamespace = new DemangledType(null, ns, ns);
-                subNamespace.setNamespace(namespaceType);
-                namespaceType = subNamespace;
-            }
-            
-            d.setNamespace(namespaceType);
-            return d;
+            return nextQualifiedType();
         } else if (tok == 'F') {
-            var func = new DemangledFunctionPointer(null, null);
-
-            // Parse parameters.
-            while (true) {
-                if (this.str.length() == 0)
-                    break;
-
-                tok = hd();
-                
-                if (tok == '_') {
-                    tk();
-                    func.setReturnType(this.nextType());
-                    break;
-                }
-                
-                func.addParameter(this.nextType());
-            }
-
-            demangleTemplates(func);
-
-            return func;
+            return nextFunctionPointer();
         } else if (tok == 'P') {
             var d = this.nextType();
             d.incrementPointerLevels();
@@ -393,94 +1222,175 @@ public class CodeWarriorDemangler {
         }
     }
 
-    private static String demangleSpecialOperator(String symbolName) {
-        if (symbolName.startsWith("__")) {
-            switch (symbolName.substring(2)) {
-                case "nw":
+    private DemangledDataType nextNamedType(char tok) {
+        // Name or literal integer. Literal integers can show up in template parameters.
+        int value = nextInteger(tok);
+        if (hd() == '>' || hd() == ',') {
+            // Literal integer (template)
+            return new DemangledDataType(null, "" + value, "" + value);
+        }
+        // Name.
+        return nextName(value);
+    }
+
+    private DemangledDataType nextQualifiedType() {
+        // Qualified name.
+        int compCount = tk() - '0';
+        if (compCount < 2)
+            throw new IllegalArgumentException("Qualified name with " + compCount + " components");
+
+        var names = this.qualifiedNames;
+        names.clear();
+        for (var i = 0; i < compCount - 1; i++) {
+            int length = nextInteger();
+            names.add(cw(length));
+        }
+        
+        // Create namespaces before parsing the last name, whose templates reuse the name buffer
+        DemangledType namespaceType = new DemangledType(null, names.get(0), names.get(0)); // Top level
+        for (String ns : names.subList(1, names.size()))
+        {
+            DemangledType subNamespace = new DemangledType(null, ns, ns);
+            subNamespace.setNamespace(namespaceType);
+            namespaceType = subNamespace;
+        }
+
+        var d = nextName(nextInteger());
+        d.setNamespace(namespaceType);
+        return d;
+    }
+
+    private DemangledDataType nextFunctionPointer() {
+        var func = new DemangledFunctionPointer(null, null, functionPointerCount++);
+
+        // Parse parameters.
+        while (true) {
+            if (isEmpty())
+                break;
+
+            char tok = hd();
+            
+            if (tok == '_') {
+                tk();
+                func.setReturnType(this.nextType());
+                break;
+            }
+            
+            func.addParameter(this.nextType());
+        }
+
+        return func;
+    }
+
+    /**
+     * Looks up the operator encoded by the function name in {@code [start, end)} of the symbol,
+     * reading the characters in place.
+     * @return the interned {@code "operator ..."} name, or null if the name is not an operator
+     */
+    static String demangleSpecialOperator(CharSequence symbol, int start, int end) {
+        int length = end - start;
+        if (length < 4 || length > 5 || symbol.charAt(start) != '_' || symbol.charAt(start + 1) != '_')
+            return null;
+
+        char c0 = symbol.charAt(start + 2);
+        char c1 = symbol.charAt(start + 3);
+        if (c0 > 0x7F || c1 > 0x7F)
+            return null;
+
+        if (length == 4) {
+            switch (c0 << 8 | c1) {
+                case 'n' << 8 | 'w':
                     return "operator new";
-                case "nwa":
-                    return "operator new[]";
-                case "dl":
+                case 'd' << 8 | 'l':
                     return "operator delete";
-                case "dla":
-                    return "operator delete[]";
-                case "pl":
+                case 'p' << 8 | 'l':
                     return "operator +";
-                case "mi":
+                case 'm' << 8 | 'i':
                     return "operator -";
-                case "ml":
+                case 'm' << 8 | 'l':
                     return "operator *";
-                case "dv":
+                case 'd' << 8 | 'v':
                     return "operator /";
-                case "md":
+                case 'm' << 8 | 'd':
                     return "operator %";
-                case "er":
+                case 'e' << 8 | 'r':
                     return "operator ^";
-                case "ad":
+                case 'a' << 8 | 'd':
                     return "operator &"; // not sure about this one.
-                case "or":
+                case 'o' << 8 | 'r':
                     return "operator |";
-                case "co":
+                case 'c' << 8 | 'o':
                     return "operator ~";
-                case "nt":
+                case 'n' << 8 | 't':
                     return "operator !";
-                case "as":
+                case 'a' << 8 | 's':
                     return "operator =";
-                case "lt":
+                case 'l' << 8 | 't':
                     return "operator <";
-                case "gt":
+                case 'g' << 8 | 't':
                     return "operator >";
-                case "apl":
-                    return "operator +=";
-                case "ami":
-                    return "operator -=";
-                case "amu":
-                    return "operator *=";
-                case "adv":
-                    return "operator /=";
-                case "amd":
-                    return "operator %=";
-                case "aer":
-                    return "operator ^=";
-                case "aad":
-                    return "operator &=";
-                case "aor":
-                    return "operator |=";
-                case "ls":
+                case 'l' << 8 | 's':
                     return "operator <<";
-                case "rs":
+                case 'r' << 8 | 's':
                     return "operator >>";
-                case "ars":
-                    return "operator >>=";
-                case "als":
-                    return "operator <<=";
-                case "eq":
+                case 'e' << 8 | 'q':
                     return "operator ==";
-                case "ne":
+                case 'n' << 8 | 'e':
                     return "operator !=";
-                case "le":
+                case 'l' << 8 | 'e':
                     return "operator <=";
-                case "ge":
+                case 'g' << 8 | 'e':
                     return "operator >="; // not sure
-                case "aa":
+                case 'a' << 8 | 'a':
                     return "operator &&";
-                case "oo":
+                case 'o' << 8 | 'o':
                     return "operator ||";
-                case "pp":
+                case 'p' << 8 | 'p':
                     return "operator ++";
-                case "mm":
+                case 'm' << 8 | 'm':
                     return "operator --";
-                case "cl":
+                case 'c' << 8 | 'l':
                     return "operator ()";
-                case "vc":
+                case 'v' << 8 | 'c':
                     return "operator []";
-                case "rf":
+                case 'r' << 8 | 'f':
                     return "operator ->";
-                case "cm":
+                case 'c' << 8 | 'm':
                     return "operator ,";
-                case "rm":
+                case 'r' << 8 | 'm':
                     return "operator ->*";
             }
+        } else {
+            char c2 = symbol.charAt(start + 4);
+            if (c2 > 0x7F)
+                return null;
+
+            switch (c0 << 16 | c1 << 8 | c2) {
+                case 'n' << 16 | 'w' << 8 | 'a':
+                    return "operator new[]";
+                case 'd' << 16 | 'l' << 8 | 'a':
+                    return "operator delete[]";
+                case 'a' << 16 | 'p' << 8 | 'l':
+                    return "operator +=";
+                case 'a' << 16 | 'm' << 8 | 'i':
+                    return "operator -=";
+                case 'a' << 16 | 'm' << 8 | 'u':
+                    return "operator *=";
+                case 'a' << 16 | 'd' << 8 | 'v':
+                    return "operator /=";
+                case 'a' << 16 | 'm' << 8 | 'd':
+                    return "operator %=";
+                case 'a' << 16 | 'e' << 8 | 'r':
+                    return "operator ^=";
+                case 'a' << 16 | 'a' << 8 | 'd':
+                    return "operator &=";
+                case 'a' << 16 | 'o' << 8 | 'r':
+                    return "operator |=";
+                case 'a' << 16 | 'r' << 8 | 's':
+                    return "operator >>=";
+                case 'a' << 16 | 'l' << 8 | 's':
+                    return "operator <<=";
+            }
         }
         
         return null;
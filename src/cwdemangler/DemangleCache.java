@@ -0,0 +1,394 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of demangled signatures, keyed by the mangled symbol, that may be shared by
+ * any number of threads.  The value of a symbol is the text {@code cwd} outputs for it: its
+ * signature, or the symbol itself if it is not mangled or fails to demangle.  The value only
+ * depends on the symbol, as function pointers are numbered within each symbol, so a hit returns
+ * the same text as demangling the symbol again.
+ *
+ * <p>Eviction follows W-TinyLFU: new entries enter a small LRU window, and an entry leaving the
+ * window is only admitted to the main area, a segmented LRU, if it has been asked for more often
+ * than the entry it would evict.  How often symbols are asked for is estimated by a count-min
+ * sketch, halved periodically so that it follows changes in the workload.  A symbol seen once,
+ * such as a local label, therefore cannot push out the {@code std} members that appear in every
+ * object.
+ *
+ * <p>The cache is split into segments by hash, each with its own lock, sketch and queues, so that
+ * threads rarely wait on each other.
+ */
+public class DemangleCache {
+
+	// Estimated memory used by an entry besides the characters of its key and value: the map
+	// entry, the node, and two String headers
+	private static final int ENTRY_OVERHEAD = 160;
+
+	private final boolean isWeighedByBytes;
+	private final long maximum;
+	private final Segment[] segments;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private DemangleCache(long maximum, boolean isWeighedByBytes) {
+		if (maximum < 1) {
+			throw new IllegalArgumentException("Invalid cache size " + maximum);
+		}
+		this.maximum = maximum;
+		this.isWeighedByBytes = isWeighedByBytes;
+
+		// Enough segments to spread the threads, but not so many that each holds only a handful
+		// of entries
+		long entries = isWeighedByBytes ? maximum / (ENTRY_OVERHEAD + 64) : maximum;
+		int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4);
+		while (count > 1 && entries / count < 256) {
+			count /= 2;
+		}
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(Math.max(1, maximum / count),
+				Math.max(1, (int) Math.min(entries / count, 1 << 24)));
+		}
+	}
+
+	/**
+	 * Creates a cache that holds up to a number of symbols
+	 * @param entries the maximum number of symbols
+	 * @return the cache
+	 */
+	public static DemangleCache withMaximumEntries(long entries) {
+		return new DemangleCache(entries, false);
+	}
+
+	/**
+	 * Creates a cache whose entries take up to about a number of bytes of memory, counting the
+	 * symbols, the signatures and the bookkeeping for each entry
+	 * @param bytes the maximum size in bytes
+	 * @return the cache
+	 */
+	public static DemangleCache withMaximumBytes(long bytes) {
+		return new DemangleCache(bytes, true);
+	}
+
+	/**
+	 * Returns the signature {@code cwd} outputs for a symbol, demangling and caching it if it is
+	 * not cached yet
+	 * @param mangled the symbol
+	 * @return the signature, or the symbol itself if it could not be demangled
+	 */
+	public String demangle(String mangled) {
+		String value = get(mangled);
+		if (value == null) {
+			value = StreamDemangler.toOutput(mangled);
+			put(mangled, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the cached value of a symbol
+	 * @param mangled the symbol
+	 * @return the signature, the symbol itself if it could not be demangled, or null if it is
+	 * not cached
+	 */
+	public String get(String mangled) {
+		int hash = spread(mangled.hashCode());
+		String value = segmentFor(hash).get(mangled, hash);
+		if (value == null) {
+			misses.increment();
+		}
+		else {
+			hits.increment();
+		}
+		return value;
+	}
+
+	/**
+	 * Caches the value of a symbol, if it is small enough to fit, evicting other entries as
+	 * needed
+	 * @param mangled the symbol
+	 * @param value the signature, or the symbol itself if it could not be demangled
+	 */
+	public void put(String mangled, String value) {
+		int hash = spread(mangled.hashCode());
+		long weight = isWeighedByBytes
+				? ENTRY_OVERHEAD + mangled.length() + (value == mangled ? 0 : value.length())
+				: 1;
+		evictions.add(segmentFor(hash).put(mangled, value, hash, weight));
+	}
+
+	/**
+	 * Returns the number of entries in the cache
+	 * @return the number of symbols cached
+	 */
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.map.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[(hash >>> 16) & (segments.length - 1)];
+	}
+
+	private static int spread(int hash) {
+		hash *= 0x9e3779b9;
+		return hash ^ (hash >>> 15);
+	}
+
+	@Override
+	public String toString() {
+		long hitCount = getHitCount();
+		long requests = hitCount + getMissCount();
+		//@formatter:off
+		return "{\n" +
+			"\tmaximum: " + maximum + (isWeighedByBytes ? " bytes" : " entries") + ",\n" +
+			"\tsize: " + size() + ",\n" +
+			"\thits: " + hitCount + ",\n" +
+			"\tmisses: " + getMissCount() + ",\n" +
+			"\tevictions: " + getEvictionCount() + ",\n" +
+			"\thitRate: " + (requests == 0 ? 0 : hitCount * 100 / requests) + "%,\n" +
+		"}";
+		//@formatter:on
+	}
+
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	private static final class Node {
+		final String key;
+		final String value;
+		final int hash;
+		final long weight;
+		int queue;
+		Node previous;
+		Node next;
+
+		Node(String key, String value, int hash, long weight) {
+			this.key = key;
+			this.value = value;
+			this.hash = hash;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * One part of the cache: a window LRU taking about 1% of its capacity, and a main area split
+	 * into probation and protected LRUs, the latter taking up to 80% of it
+	 */
+	private static final class Segment {
+		final Map<String, Node> map = new HashMap<>();
+		final FrequencySketch sketch;
+
+		// Each queue is a circular list through a sentinel, least recently used first
+		final Node[] queues = new Node[3];
+		final long[] weights = new long[3];
+
+		final long windowMaximum;
+		final long mainMaximum;
+		final long protectedMaximum;
+		final long maximum;
+
+		Segment(long maximum, int expectedEntries) {
+			this.maximum = maximum;
+			this.windowMaximum = Math.max(1, maximum / 100);
+			this.mainMaximum = maximum - windowMaximum;
+			this.protectedMaximum = mainMaximum * 8 / 10;
+			this.sketch = new FrequencySketch(expectedEntries);
+			for (int i = 0; i < queues.length; i++) {
+				Node sentinel = new Node(null, null, 0, 0);
+				sentinel.previous = sentinel;
+				sentinel.next = sentinel;
+				queues[i] = sentinel;
+			}
+		}
+
+		synchronized String get(String key, int hash) {
+			sketch.increment(hash);
+			Node node = map.get(key);
+			if (node == null) {
+				return null;
+			}
+
+			if (node.queue == PROBATION) {
+				// A second use earns a place in the protected area, which may push its least
+				// recently used entry back to probation
+				move(node, PROTECTED);
+				while (weights[PROTECTED] > protectedMaximum) {
+					move(queues[PROTECTED].next, PROBATION);
+				}
+			}
+			else {
+				move(node, node.queue);
+			}
+			return node.value;
+		}
+
+		/**
+		 * Adds an entry to the window, and makes room for it
+		 * @return the number of entries evicted
+		 */
+		synchronized int put(String key, String value, int hash, long weight) {
+			if (weight > maximum || map.containsKey(key)) {
+				return 0;
+			}
+			Node node = new Node(key, value, hash, weight);
+			map.put(key, node);
+			link(node, WINDOW);
+
+			// The entries leaving the window are the candidates for the main area
+			int evicted = 0;
+			while (weights[WINDOW] > windowMaximum) {
+				Node candidate = queues[WINDOW].next;
+				if (weights[PROBATION] + weights[PROTECTED] + candidate.weight <= mainMaximum) {
+					move(candidate, PROBATION);
+					continue;
+				}
+				evict(candidate);
+				evicted++;
+			}
+			return evicted;
+		}
+
+		/**
+		 * Evicts either a candidate leaving the window or the victim it would replace in the main
+		 * area, the least recently used entry on probation, or in the protected area if probation
+		 * is empty.  The candidate is admitted only if it is used more often, so that the main
+		 * area keeps the older entry on a tie, and if it can fit there at all.
+		 */
+		private void evict(Node candidate) {
+			Node victim = queues[PROBATION].next;
+			if (victim == queues[PROBATION]) {
+				victim = queues[PROTECTED].next;
+			}
+			if (victim != queues[PROTECTED] && candidate.weight <= mainMaximum &&
+				sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+				remove(victim);
+			}
+			else {
+				remove(candidate);
+			}
+		}
+
+		private void remove(Node node) {
+			unlink(node);
+			map.remove(node.key);
+		}
+
+		private void move(Node node, int queue) {
+			unlink(node);
+			link(node, queue);
+		}
+
+		private void link(Node node, int queue) {
+			Node sentinel = queues[queue];
+			node.queue = queue;
+			node.previous = sentinel.previous;
+			node.next = sentinel;
+			sentinel.previous.next = node;
+			sentinel.previous = node;
+			weights[queue] += node.weight;
+		}
+
+		private void unlink(Node node) {
+			node.previous.next = node.next;
+			node.next.previous = node.previous;
+			weights[node.queue] -= node.weight;
+		}
+	}
+
+	/**
+	 * A count-min sketch of 4-bit counters, four to a symbol, estimating how often each symbol
+	 * has been asked for.  All counters are halved once the number of increments reaches ten
+	 * times the number of counters per row, so that old popularity fades.
+	 */
+	private static final class FrequencySketch {
+		private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+			0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		private final long[] table;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int expectedEntries) {
+			int length = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+			table = new long[Math.max(length / 16 * 4, 4)];
+			sampleSize = 10 * Math.max(expectedEntries, 16);
+		}
+
+		int frequency(int hash) {
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < 4; i++) {
+				frequency = Math.min(frequency, get(index(hash, i), counter(hash, i)));
+			}
+			return frequency;
+		}
+
+		void increment(int hash) {
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				int index = index(hash, i);
+				int counter = counter(hash, i);
+				if (get(index, counter) < 15) {
+					table[index] += 1L << (counter * 4);
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] = (table[i] >>> 1) & RESET_MASK;
+				}
+				additions /= 2;
+			}
+		}
+
+		private int get(int index, int counter) {
+			return (int) (table[index] >>> (counter * 4)) & 0xf;
+		}
+
+		private int index(int hash, int i) {
+			long h = (hash + SEEDS[i]) * SEEDS[i];
+			return (int) ((h + (h >>> 32)) & (table.length - 1));
+		}
+
+		private static int counter(int hash, int i) {
+			return (hash >>> (i * 4)) & 0xf;
+		}
+	}
+}
@@ -144,6 +144,15 @@ public interface Demangled {
 	 */
 	public String getNamespaceString();
 
+	/**
+	 * Appends {@link #getNamespaceString()} to the given buffer, which lets a whole signature be
+	 * written into one buffer
+	 * @param buffer the buffer to append to
+	 */
+	public default void appendNamespaceString(StringBuilder buffer) {
+		buffer.append(getNamespaceString());
+	}
+
 	/**
 	 * Returns this object's namespace name without the fully-qualified parent path. The 
 	 * value returned here may have had some special characters replaced, such as ' ' replaced
@@ -159,4 +168,12 @@ public interface Demangled {
 	 * @return the signature
 	 */
 	public String getSignature();
+
+	/**
+	 * Appends {@link #getSignature()} to the given buffer
+	 * @param buffer the buffer to append to
+	 */
+	public default void appendSignature(StringBuilder buffer) {
+		buffer.append(getSignature());
+	}
 }
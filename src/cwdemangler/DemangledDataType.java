@@ -103,10 +103,12 @@ public class DemangledDataType extends DemangledType {
 	}
 
 	public void incrementPointerLevels() {
+		modify();
 		pointerLevels++;
 	}
 
 	public void setArray(int dimensions) {
+		modify();
 		this.arrayDimensions = dimensions;
 	}
 
@@ -115,22 +117,27 @@ public class DemangledDataType extends DemangledType {
 	}
 
 	public void setClass() {
+		modify();
 		isClass = true;
 	}
 
 	public void setComplex() {
+		modify();
 		isComplex = true;
 	}
 
 	public void setEnum() {
+		modify();
 		isEnum = true;
 	}
 
 	public void setPointer64() {
+		modify();
 		isPointer64 = true;
 	}
 
 	public void setReference() {
+		modify();
 		isReference = true;
 	}
 
@@ -138,38 +145,47 @@ public class DemangledDataType extends DemangledType {
 	 * rvalue reference; C++11
 	 */
 	public void setRValueReference() {
+		modify();
 		isRValueReference = true;
 	}
 
 	public void setSigned() {
+		modify();
 		isSigned = true;
 	}
 
 	public void setStruct() {
+		modify();
 		isStruct = true;
 	}
 
 	public void setTemplate() {
+		modify();
 		isTemplate = true;
 	}
 
 	public void setUnion() {
+		modify();
 		isUnion = true;
 	}
 
 	public void setCoclass() {
+		modify();
 		isCoclass = true;
 	}
 
 	public void setCointerface() {
+		modify();
 		isCointerface = true;
 	}
 
 	public void setUnsigned() {
+		modify();
 		isUnsigned = true;
 	}
 
 	public void setUnaligned() {
+		modify();
 		isUnaligned = true;
 	}
 
@@ -178,14 +194,17 @@ public class DemangledDataType extends DemangledType {
 	}
 
 	public void setVarArgs() {
+		modify();
 		isVarArgs = true;
 	}
 
 	public void setEnumType(String enumType) {
+		modify();
 		this.enumType = enumType;
 	}
 
 	public void setRestrict() {
+		modify();
 		isRestrict = true;
 	}
 
@@ -270,6 +289,7 @@ public class DemangledDataType extends DemangledType {
 	}
 
 	public void setBasedName(String basedName) {
+		modify();
 		this.basedName = basedName;
 	}
 
@@ -278,6 +298,7 @@ public class DemangledDataType extends DemangledType {
 	}
 
 	public void setMemberScope(String memberScope) {
+		modify();
 		this.memberScope = memberScope;
 	}
 
@@ -298,7 +319,24 @@ public class DemangledDataType extends DemangledType {
 	@Override
 	public String getSignature() {
 		StringBuilder buffer = new StringBuilder();
+		appendSignature(buffer);
+		return buffer.toString();
+	}
+
+	@Override
+	public void appendSignature(StringBuilder buffer) {
+		appendSignature(buffer, null);
+	}
+
+	/**
+	 * Appends the signature through a formatter, which lays out the template arguments
+	 * @param formatter the formatter of the signature being written
+	 */
+	void appendSignature(SignatureFormatter formatter) {
+		appendSignature(formatter.getBuffer(), formatter);
+	}
 
+	private void appendSignature(StringBuilder buffer, SignatureFormatter formatter) {
 		if (isUnion) {
 			buffer.append(UNION + SPACE);
 		}
@@ -308,7 +346,7 @@ public class DemangledDataType extends DemangledType {
 		if (isEnum) {
 			buffer.append(ENUM + SPACE);
 			if ((enumType != null) && !("int".equals(enumType))) {
-				buffer.append(enumType + SPACE);
+				buffer.append(enumType).append(SPACE);
 			}
 		}
 		if (isClass) {
@@ -331,14 +369,19 @@ public class DemangledDataType extends DemangledType {
 		}
 
 		if (getNamespace() != null) {
-			buffer.append(getNamespace().getNamespaceString());
+			getNamespace().appendNamespaceString(buffer);
 			buffer.append("::");
 		}
 
 		buffer.append(getDemangledName());
 
 		if (getTemplate() != null) {
-			buffer.append(getTemplate().toTemplate());
+			if (formatter != null) {
+				getTemplate().appendTemplate(formatter);
+			}
+			else {
+				getTemplate().appendTemplate(buffer);
+			}
 		}
 
 		if (isConst()) {
@@ -350,11 +393,11 @@ public class DemangledDataType extends DemangledType {
 		}
 
 		if (basedName != null) {
-			buffer.append(SPACE + basedName);
+			buffer.append(SPACE).append(basedName);
 		}
 
 		if ((memberScope != null) && (memberScope.length() != 0)) {
-			buffer.append(SPACE + memberScope + "::");
+			buffer.append(SPACE).append(memberScope).append("::");
 		}
 
 		if (isUnaligned) {
@@ -395,7 +438,6 @@ public class DemangledDataType extends DemangledType {
 				}
 			}
 		}
-		return buffer.toString();
 	}
 
 	@Override
@@ -171,126 +171,160 @@ public class DemangledFunction extends DemangledObject {
 	@Override
 	public String getSignature(boolean format) {
 		StringBuilder buffer = new StringBuilder();
+		appendSignature(buffer, format);
+		return buffer.toString();
+	}
+
+	@Override
+	public void appendSignature(StringBuilder buffer, boolean format) {
+		appendSignature(buffer, format ? DEFAULT_FORMAT : null);
+	}
+
+	@Override
+	public void appendSignature(StringBuilder buffer, SignatureFormat format) {
+		int start = buffer.length();
+		if (returnType instanceof DemangledFunctionPointer) {
+			// The function is declared inside the declarator of the returned function pointer, so
+			// the rest of the signature has to be rendered before it can be placed
+			StringBuilder declarator = new StringBuilder();
+			appendDeclarator(declarator, 0, format);
 
-		if (!(returnType instanceof DemangledFunctionPointer)) {
 			buffer.append(specialPrefix == null ? "" : specialPrefix + " ");
-			if (isThunk) {
-				buffer.append("[thunk]:");
-			}
 			buffer.append(
 				visibility == null || "global".equals(visibility) ? "" : visibility + " ");
 			if (isVirtual) {
 				buffer.append("virtual ");
 			}
-			if (isStatic) {
-				buffer.append("static ");
-			}
-			if (!isTypeCast()) {
-				buffer.append(returnType == null ? "" : returnType.getSignature() + " ");
-			}
-		}
-
-		buffer.append(callingConvention == null ? "" : callingConvention + " ");
-		if (namespace != null) {
-			buffer.append(namespace.getNamespaceString());
-			buffer.append(NAMESPACE_SEPARATOR);
-		}
-
-		buffer.append(getDemangledName());
-		if (isTypeCast()) {
-			buffer.append(returnType == null ? "" : " " + returnType.getSignature() + " ");
-		}
-
-		if (template != null) {
-			buffer.append(template.toTemplate());
-		}
-
-		if (templatedConstructorType != null) {
-			buffer.append('<').append(templatedConstructorType).append('>');
-		}
-
-		addParameters(buffer, format);
-
-		buffer.append(storageClass == null ? "" : " " + storageClass);
-
-		if (returnType instanceof DemangledFunctionPointer) {
 			DemangledFunctionPointer funcPtr = (DemangledFunctionPointer) returnType;
-			String partialSig = funcPtr.toSignature(buffer.toString());
-			buffer = new StringBuilder();
+			funcPtr.appendSignature(buffer, declarator.toString());
+		}
+		else {
 			buffer.append(specialPrefix == null ? "" : specialPrefix + " ");
+			if (isThunk) {
+				buffer.append("[thunk]:");
+			}
 			buffer.append(
 				visibility == null || "global".equals(visibility) ? "" : visibility + " ");
 			if (isVirtual) {
 				buffer.append("virtual ");
 			}
-			buffer.append(partialSig);
+			if (isStatic) {
+				buffer.append("static ");
+			}
+			if (!isTypeCast() && returnType != null) {
+				returnType.appendSignature(buffer);
+				buffer.append(' ');
+			}
+			appendDeclarator(buffer, start, format);
 		}
 
 		if (isTrailingConst()) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(CONST);
 		}
 		if (isTrailingVolatile()) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(VOLATILE);
 		}
 		if (isTrailingUnaligned) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(UNALIGNED);
 		}
 		if (isTrailingPointer64) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(PTR64);
 		}
 		if (isTrailingRestrict) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(RESTRICT);
 		}
 		if (throwAttribute != null) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(throwAttribute);
 		}
+	}
 
-		return buffer.toString();
+	/**
+	 * Appends the calling convention, qualified name, template and parameter list
+	 */
+	private void appendDeclarator(StringBuilder buffer, int lineStart, SignatureFormat format) {
+		SignatureFormatter formatter =
+			format == null ? null : new SignatureFormatter(format, buffer, lineStart);
+		buffer.append(callingConvention == null ? "" : callingConvention + " ");
+		if (namespace != null) {
+			namespace.appendNamespaceString(buffer);
+			buffer.append(NAMESPACE_SEPARATOR);
+		}
+
+		buffer.append(getDemangledName());
+		if (isTypeCast() && returnType != null) {
+			buffer.append(' ');
+			returnType.appendSignature(buffer);
+			buffer.append(' ');
+		}
+
+		if (template != null) {
+			if (formatter != null) {
+				template.appendTemplate(formatter);
+			}
+			else {
+				template.appendTemplate(buffer);
+			}
+		}
+
+		if (templatedConstructorType != null) {
+			buffer.append('<').append(templatedConstructorType).append('>');
+		}
+
+		appendParameters(buffer, formatter);
+
+		buffer.append(storageClass == null ? "" : " " + storageClass);
 	}
 
-	
+	/**
+	 * Appends the parameter list, one parameter per line aligned under the first if formatted
+	 * @param buffer the buffer to append to, whose first line starts at index 0
+	 * @param format true to break the line after every parameter
+	 */
 	protected void addParameters(StringBuilder buffer, boolean format) {
-		Iterator<DemangledDataType> paramIterator = parameters.iterator();
+		appendParameters(buffer,
+			format ? new SignatureFormatter(new SignatureFormat(), buffer, 0) : null);
+	}
+
+	/**
+	 * Appends the parameter list
+	 * @param buffer the buffer to append to
+	 * @param formatter the formatter that lays out the parameters, or null to keep them on one
+	 * line
+	 */
+	private void appendParameters(StringBuilder buffer, SignatureFormatter formatter) {
+		if (formatter != null) {
+			formatter.appendParameters(parameters);
+			return;
+		}
+
 		buffer.append('(');
-		int padLength = format ? buffer.length() : 0;
-		
-		String pad = "";
-		for(int i = 0; i < padLength; i++)
-			pad += ' ';
-		
-		if (!paramIterator.hasNext()) {
+		if (parameters.isEmpty()) {
 			buffer.append("void");
 		}
-
-		while (paramIterator.hasNext()) {
-			buffer.append(paramIterator.next().getSignature());
-			if (paramIterator.hasNext()) {
+		for (int i = 0; i < parameters.size(); i++) {
+			if (i > 0) {
 				buffer.append(',');
-				if (format) {
-					buffer.append('\n');
-				}
-				buffer.append(pad);
 			}
+			parameters.get(i).appendSignature(buffer);
 		}
-
 		buffer.append(')');
 	}
 
@@ -300,11 +334,11 @@ public class DemangledFunction extends DemangledObject {
 	}
 
 	public String getParameterString() {
-		StringBuffer buffer = new StringBuffer();
+		StringBuilder buffer = new StringBuilder();
 		buffer.append('(');
 		Iterator<DemangledDataType> dditer = parameters.iterator();
 		while (dditer.hasNext()) {
-			buffer.append(dditer.next().getSignature());
+			dditer.next().appendSignature(buffer);
 			if (dditer.hasNext()) {
 				buffer.append(',');
 			}
@@ -39,7 +39,18 @@ public class DemangledFunctionPointer extends DemangledDataType {
 	private boolean displayFunctionPointerSyntax = true;
 
 	public DemangledFunctionPointer(String mangled, String originalDemangled) {
-		super(mangled, originalDemangled, DEFAULT_NAME_PREFIX + nextId());
+		this(mangled, originalDemangled, nextId());
+	}
+
+	/**
+	 * Creates a function pointer numbered by the demangler instead of the shared counter, so that
+	 * its name only depends on the symbol it was demangled from
+	 * @param mangled the mangled string
+	 * @param originalDemangled the original demangled string
+	 * @param id the number of function pointers demangled before this one in the symbol
+	 */
+	DemangledFunctionPointer(String mangled, String originalDemangled, int id) {
+		super(mangled, originalDemangled, DEFAULT_NAME_PREFIX + id);
 		
 		incrementPointerLevels(); // a function pointer is 1 level by default
 	}
@@ -52,12 +63,27 @@ public class DemangledFunctionPointer extends DemangledDataType {
 	protected String getTypeString() {
 		return "*";
 	}
+
+	@Override
+	boolean markRendered() {
+		boolean isTracked = super.markRendered();
+		if (returnType != null && !returnType.markRendered()) {
+			isTracked = false;
+		}
+		for (DemangledDataType parameter : parameters) {
+			if (!parameter.markRendered()) {
+				isTracked = false;
+			}
+		}
+		return isTracked;
+	}
 	
 	/**
 	 * Sets the return type
 	 * @param returnType the return type
 	 */
 	public void setReturnType(DemangledDataType returnType) {
+		modify();
 		this.returnType = returnType;
 	}
 	
@@ -66,6 +92,7 @@ public class DemangledFunctionPointer extends DemangledDataType {
 	 * @param parameter the new parameter to add
 	 */
 	public void addParameter(DemangledDataType parameter) {
+		modify();
 		parameters.add(parameter);
 	}
 
@@ -75,6 +102,7 @@ public class DemangledFunctionPointer extends DemangledDataType {
 	 * @param b true to display nameless function pointer syntax; false to not display 
 	 */
 	public void setDisplayDefaultFunctionPointerSyntax(boolean b) {
+		modify();
 		this.displayFunctionPointerSyntax = b;
 	}
 
@@ -88,73 +116,86 @@ public class DemangledFunctionPointer extends DemangledDataType {
 	
 	public String toSignature(String name) {
 		StringBuilder buffer = new StringBuilder();
-		StringBuilder buffer1 = new StringBuilder();
-		String s = getConventionPointerNameString(name);
-
-		addFunctionPointerParens(buffer1, s);
-
-		buffer1.append('(');
-		for (int i = 0; i < parameters.size(); ++i) {
-			buffer1.append(parameters.get(i).getSignature());
-			if (i < parameters.size() - 1) {
-				buffer1.append(',');
-			}
-		}
-		buffer1.append(')');
+		appendSignature(buffer, name);
+		return buffer.toString();
+	}
 
+	/**
+	 * Appends {@link #toSignature(String)} to the given buffer
+	 * @param buffer the buffer to append to
+	 * @param name the name being declared, or null
+	 */
+	public void appendSignature(StringBuilder buffer, String name) {
+		int start = buffer.length();
 		if (returnType instanceof DemangledFunctionPointer) {
+			// The declarator nests inside the declarator of the returned function type
+			StringBuilder declarator = new StringBuilder();
+			appendDeclarator(declarator, name);
 			DemangledFunctionPointer dfp = (DemangledFunctionPointer) returnType;
-			buffer.append(dfp.toSignature(buffer1.toString())).append(SPACE);
-		}
-		else if (returnType instanceof DemangledFunctionReference) {
-			DemangledFunctionReference dfr = (DemangledFunctionReference) returnType;
-			buffer.append(dfr.toSignature(buffer1.toString())).append(SPACE);
+			dfp.appendSignature(buffer, declarator.toString());
+			buffer.append(SPACE);
 		}
-		else if (returnType instanceof DemangledFunctionIndirect) {
-			DemangledFunctionIndirect dfi = (DemangledFunctionIndirect) returnType;
-			buffer.append(dfi.toSignature(buffer1.toString())).append(SPACE);
+		else if (returnType instanceof AbstractDemangledFunctionDefinitionDataType) {
+			StringBuilder declarator = new StringBuilder();
+			appendDeclarator(declarator, name);
+			AbstractDemangledFunctionDefinitionDataType dfd =
+				(AbstractDemangledFunctionDefinitionDataType) returnType;
+			dfd.appendSignature(buffer, declarator.toString());
+			buffer.append(SPACE);
 		}
 		else {
-			buffer.append(returnType.getSignature()).append(SPACE);
-			buffer.append(buffer1);
+			returnType.appendSignature(buffer);
+			buffer.append(SPACE);
+			appendDeclarator(buffer, name);
 		}
 
 		if (isConst()) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(CONST);
 		}
 
 		if (isVolatile()) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(VOLATILE);
 		}
 
 		if (isTrailingUnaligned) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(UNALIGNED);
 		}
 
 		if (isTrailingPointer64) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(PTR64);
 		}
 
 		if (isTrailingRestrict) {
-			if (buffer.length() > 2) {
+			if (buffer.length() - start > 2) {
 				buffer.append(SPACE);
 			}
 			buffer.append(RESTRICT);
 		}
+	}
 
-		return buffer.toString();
+	private void appendDeclarator(StringBuilder buffer, String name) {
+		addFunctionPointerParens(buffer, getConventionPointerNameString(name));
+
+		buffer.append('(');
+		for (int i = 0; i < parameters.size(); ++i) {
+			parameters.get(i).appendSignature(buffer);
+			if (i < parameters.size() - 1) {
+				buffer.append(',');
+			}
+		}
+		buffer.append(')');
 	}
 	
 	protected String getConventionPointerNameString(String name) {
@@ -27,6 +27,9 @@ public abstract class DemangledObject implements Demangled {
 	protected static final String NAMESPACE_SEPARATOR = "::";
 	protected static final String EMPTY_STRING = "";
 
+	// The layout of getSignature(true); never modified
+	static final SignatureFormat DEFAULT_FORMAT = new SignatureFormat();
+
 	protected final String mangled; // original mangled string
 	protected final String originalDemangled;
 	protected String specialPrefix;
@@ -236,11 +239,47 @@ public abstract class DemangledObject implements Demangled {
 	 */
 	public abstract String getSignature(boolean format);
 
+	/**
+	 * Appends {@link #getSignature(boolean)} to the given buffer, so that callers can write many
+	 * signatures into one buffer without building a String for each.
+	 * @param buffer the buffer to append to
+	 * @param format true if signature should be pretty printed
+	 */
+	public void appendSignature(StringBuilder buffer, boolean format) {
+		buffer.append(getSignature(format));
+	}
+
+	/**
+	 * Returns a complete signature for the demangled symbol, pretty printed with the given
+	 * layout.  {@code getSignature(true)} uses the default {@link SignatureFormat}.
+	 * @param format the layout, or null to print the signature on one line
+	 * @return a complete signature for the demangled symbol
+	 */
+	public String getSignature(SignatureFormat format) {
+		StringBuilder buffer = new StringBuilder();
+		appendSignature(buffer, format);
+		return buffer.toString();
+	}
+
+	/**
+	 * Appends {@link #getSignature(SignatureFormat)} to the given buffer
+	 * @param buffer the buffer to append to
+	 * @param format the layout, or null to print the signature on one line
+	 */
+	public void appendSignature(StringBuilder buffer, SignatureFormat format) {
+		appendSignature(buffer, format != null);
+	}
+
 	@Override
 	public final String getSignature() {
 		return getSignature(false);
 	}
 
+	@Override
+	public final void appendSignature(StringBuilder buffer) {
+		appendSignature(buffer, false);
+	}
+
 	@Override
 	public String getNamespaceName() {
 		return getName();
@@ -254,12 +293,17 @@ public abstract class DemangledObject implements Demangled {
 	@Override
 	public String getNamespaceString() {
 		StringBuilder buffer = new StringBuilder();
+		appendNamespaceString(buffer);
+		return buffer.toString();
+	}
+
+	@Override
+	public void appendNamespaceString(StringBuilder buffer) {
 		if (namespace != null) {
-			buffer.append(namespace.getNamespaceString());
+			namespace.appendNamespaceString(buffer);
 			buffer.append("::");
 		}
 		buffer.append(getNamespaceName());
-		return buffer.toString();
 	}
 
 	/**
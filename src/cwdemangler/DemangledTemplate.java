@@ -20,9 +20,14 @@ import java.util.List;
 
 public class DemangledTemplate {
 	private List<DemangledDataType> parameters = new ArrayList<DemangledDataType>();
+	private boolean isRendered;
 
 	public void addParameter(DemangledDataType parameter) {
 		parameters.add(parameter);
+		if (isRendered) {
+			isRendered = false;
+			DemangledType.invalidateNamespaceStrings();
+		}
 	}
 
 	public List<DemangledDataType> getParameters() {
@@ -31,15 +36,46 @@ public class DemangledTemplate {
 
 	public String toTemplate() {
 		StringBuilder buffer = new StringBuilder();
+		appendTemplate(buffer);
+		return buffer.toString();
+	}
+
+	/**
+	 * Appends {@link #toTemplate()} to the given buffer
+	 * @param buffer the buffer to append to
+	 */
+	public void appendTemplate(StringBuilder buffer) {
 		buffer.append('<');
 		for (int i = 0; i < parameters.size(); ++i) {
-			buffer.append(parameters.get(i).getSignature());
+			parameters.get(i).appendSignature(buffer);
 			if (i < parameters.size() - 1) {
 				buffer.append(',');
 			}
 		}
 		buffer.append('>');
-		return buffer.toString();
+	}
+
+	/**
+	 * Appends the template through a formatter, which may wrap the arguments
+	 * @param formatter the formatter of the signature being written
+	 */
+	void appendTemplate(SignatureFormatter formatter) {
+		formatter.appendTemplateArguments(parameters);
+	}
+
+	/**
+	 * Marks this template and its arguments, see {@link DemangledType#markRendered()}
+	 * @return false if an argument is rendered from something whose changes cannot be tracked
+	 */
+	boolean markRendered() {
+		isRendered = true;
+		boolean isTracked = true;
+		for (DemangledDataType parameter : parameters) {
+			if (!parameter.markRendered()) {
+				isTracked = false;
+			}
+		}
+		return isTracked;
 	}
 
 	@Override
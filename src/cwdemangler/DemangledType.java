@@ -15,6 +15,8 @@
  */
 package cwdemangler;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Represents a demangled string.  This class is really just a placeholder for demangled 
  * information.  See {@link DemangledObject} for a class that represents software concepts that
@@ -33,6 +35,16 @@ public class DemangledType implements Demangled {
 	private boolean isConst;
 	private boolean isVolatile;
 
+	// Advanced whenever a type that a cached namespace string was rendered from changes
+	private static final AtomicLong generation = new AtomicLong();
+
+	// Whether a cached namespace string may have been rendered from this type
+	private boolean isRendered;
+
+	// Rendered by getNamespaceString(), and the generation it was rendered in
+	private String namespaceString;
+	private long namespaceStringGeneration;
+
 	public DemangledType(String mangled, String originaDemangled, String name) {
 		this.mangled = mangled;
 		this.originalDemangled = originaDemangled;
@@ -51,6 +63,7 @@ public class DemangledType implements Demangled {
 
 	@Override
 	public void setName(String name) {
+		modify();
 		if (name.isEmpty()) {
 			throw new IllegalArgumentException("Name cannot be blank");
 		}
@@ -78,6 +91,7 @@ public class DemangledType implements Demangled {
 	}
 
 	public void setConst() {
+		modify();
 		isConst = true;
 	}
 
@@ -86,6 +100,7 @@ public class DemangledType implements Demangled {
 	}
 
 	public void setVolatile() {
+		modify();
 		isVolatile = true;
 	}
 
@@ -96,6 +111,7 @@ public class DemangledType implements Demangled {
 
 	@Override
 	public void setNamespace(Demangled namespace) {
+		modify();
 		if (this == namespace) {
 			throw new IllegalArgumentException("Attempt to set this.namespace == this!");
 		}
@@ -107,36 +123,101 @@ public class DemangledType implements Demangled {
 	}
 
 	public void setTemplate(DemangledTemplate template) {
+		modify();
 		this.template = template;
 	}
 
+	/**
+	 * Records that this instance is modified, so that strings rendered from it are rendered
+	 * again.  Called by every method that modifies this type; subclasses that change their
+	 * fields directly must call it as well.
+	 */
+	protected void modify() {
+		if (isRendered) {
+			isRendered = false;
+			invalidateNamespaceStrings();
+		}
+	}
+
+	/**
+	 * Makes every cached namespace string be rendered again, because something it may have
+	 * been rendered from has changed
+	 */
+	static void invalidateNamespaceStrings() {
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Marks this type and everything its namespace string is rendered from, so that changing
+	 * any of them invalidates the string.
+	 * <p>Subclasses that render more than their name, such as function types, mark what they
+	 * render as well.
+	 * @return false if the string is rendered from a namespace that is not a
+	 * {@link DemangledType}, whose changes cannot be tracked
+	 */
+	boolean markRendered() {
+		isRendered = true;
+		boolean isTracked = true;
+		if (namespace instanceof DemangledType) {
+			isTracked = ((DemangledType) namespace).markRendered();
+		}
+		else if (namespace != null) {
+			isTracked = false;
+		}
+		if (template != null && !template.markRendered()) {
+			isTracked = false;
+		}
+		return isTracked;
+	}
+
 	@Override
 	public String getSignature() {
 		return getNamespaceName();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>The string is rendered once and then reused until this type, its namespaces or its
+	 * template change.  It is not reused if a namespace is not a {@link DemangledType}.
+	 */
 	@Override
 	public String getNamespaceString() {
-		return getName(true);
+		long current = generation.get();
+		String s = namespaceString;
+		if (s == null || namespaceStringGeneration != current) {
+			s = getName(true);
+			namespaceString = markRendered() ? s : null;
+			namespaceStringGeneration = current;
+		}
+		return s;
 	}
 
 	private String getName(boolean includeNamespace) {
 		StringBuilder buffer = new StringBuilder();
+		appendName(buffer, includeNamespace);
+
+		if (buffer.length() == 0) {
+			return "";
+		}
+
+		return buffer.toString();
+	}
+
+	@Override
+	public void appendNamespaceString(StringBuilder buffer) {
+		buffer.append(getNamespaceString());
+	}
+
+	private void appendName(StringBuilder buffer, boolean includeNamespace) {
 		if (includeNamespace && namespace != null) {
-			buffer.append(namespace.getNamespaceString());
+			namespace.appendNamespaceString(buffer);
 			buffer.append("::");
 		}
 
 		buffer.append(demangledName);
 		if (template != null) {
-			buffer.append(template.toTemplate());
+			template.appendTemplate(buffer);
 		}
-
-		if (buffer.length() == 0) {
-			return "";
-		}
-
-		return buffer.toString();
 	}
 
 	@Override
@@ -41,6 +41,12 @@ public class DemangledVariable extends DemangledObject {
 	@Override
 	public String getSignature(boolean format) {
 		StringBuilder buffer = new StringBuilder();
+		appendSignature(buffer, format);
+		return buffer.toString();
+	}
+
+	@Override
+	public void appendSignature(StringBuilder buffer, boolean format) {
 		buffer.append(specialPrefix == null ? EMPTY_STRING : specialPrefix + SPACE);
 		buffer.append(
 			visibility == null || "global".equals(visibility) ? EMPTY_STRING : visibility + SPACE);
@@ -52,13 +58,16 @@ public class DemangledVariable extends DemangledObject {
 		String n = getDemangledName();
 		boolean hasName = !n.isEmpty();
 
-		StringBuilder datatypeBuffer = new StringBuilder();
+		// A function type declares the variable inside its own declarator, so the declarator is
+		// rendered separately first; any other variable is written straight into the buffer
+		boolean isFunctionType = datatype instanceof DemangledFunctionPointer ||
+			datatype instanceof DemangledFunctionReference ||
+			datatype instanceof DemangledFunctionIndirect;
+		StringBuilder datatypeBuffer = isFunctionType ? new StringBuilder() : buffer;
 		String spacer = EMPTY_STRING;
-		if (!(datatype instanceof DemangledFunctionPointer) &&
-			!(datatype instanceof DemangledFunctionReference) &&
-			!(datatype instanceof DemangledFunctionIndirect)) {
+		if (!isFunctionType) {
 			if (datatype != null) {
-				datatypeBuffer.append(datatype.getSignature());
+				datatype.appendSignature(datatypeBuffer);
 				spacer = SPACE;
 			}
 		}
@@ -85,7 +94,7 @@ public class DemangledVariable extends DemangledObject {
 		}
 
 		if ((memberScope != null) && (memberScope.length() != 0)) {
-			datatypeBuffer.append(spacer).append(memberScope + "::");
+			datatypeBuffer.append(spacer).append(memberScope).append("::");
 			spacer = SPACE;
 		}
 
@@ -109,7 +118,7 @@ public class DemangledVariable extends DemangledObject {
 			datatypeBuffer.append(spacer);
 			spacer = EMPTY_STRING;
 
-			datatypeBuffer.append(namespace.getNamespaceString());
+			namespace.appendNamespaceString(datatypeBuffer);
 
 			if (hasName) {
 				datatypeBuffer.append(NAMESPACE_SEPARATOR);
@@ -124,20 +133,16 @@ public class DemangledVariable extends DemangledObject {
 
 		if (datatype instanceof DemangledFunctionPointer) {
 			DemangledFunctionPointer funcPtr = (DemangledFunctionPointer) datatype;
-			return buffer.append(funcPtr.toSignature(datatypeBuffer.toString())).toString();
+			funcPtr.appendSignature(buffer, datatypeBuffer.toString());
 		}
 		else if (datatype instanceof DemangledFunctionReference) {
 			DemangledFunctionReference funcRef = (DemangledFunctionReference) datatype;
-			return buffer.append(funcRef.toSignature(datatypeBuffer.toString())).toString();
+			funcRef.appendSignature(buffer, datatypeBuffer.toString());
 		}
 		else if (datatype instanceof DemangledFunctionIndirect) {
 			DemangledFunctionIndirect funcDef = (DemangledFunctionIndirect) datatype;
-			return buffer.append(funcDef.toSignature(datatypeBuffer.toString())).toString();
+			funcDef.appendSignature(buffer, datatypeBuffer.toString());
 		}
-
-		buffer.append(datatypeBuffer);
-
-		return buffer.toString();
 	}
 
 	/*
@@ -0,0 +1,613 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Keeps one JVM running to demangle for many short-lived clients, so that they pay neither JVM
+ * startup nor a cold parser.  The server listens on a Unix domain socket or a localhost TCP port
+ * and speaks the protocol of {@code cwd} reading standard input: each line a client sends is a
+ * symbol, and it gets back one line, the demangled symbol or the line unchanged, in the same
+ * order.  A client may send any number of symbols before reading the answers, and may close its
+ * output when done and read the remaining answers until the end of the stream.  See
+ * {@link #forward(SocketAddress, InputStream, OutputStream)} for a client.
+ *
+ * <p>All connections are served by one thread that waits on a {@link Selector} and never blocks
+ * on a single client.  Whatever a client has sent by the time it is read is demangled as one
+ * batch, on a pool if there is one, while the thread goes on with the other clients.  Each
+ * connection has at most one batch being demangled or written at a time, which keeps its answers
+ * in order; a client that does not read its answers is not read from either, so it holds up no
+ * one but itself.
+ */
+public class DemanglerServer implements Closeable {
+
+	// A client sending a line longer than this without a line break is disconnected
+	private static final int MAX_LINE_LENGTH = 1 << 24;
+
+	// Batches smaller than this, such as single symbols from interactive clients, cost less to
+	// demangle than to hand to the pool
+	private static final int MIN_POOL_BATCH_SIZE = 1 << 10;
+
+	private final SocketAddress address;
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final ForkJoinPool pool;
+	private final Queue<Connection> demangled = new ConcurrentLinkedQueue<>();
+	private DemangleCache cache;
+	private CacheFile cacheFile;
+
+	/**
+	 * Binds a server that demangles on the thread that serves it
+	 * @param address the address to listen on, see {@link #parseAddress(String)}
+	 * @throws IOException if the address is in use or cannot be bound
+	 */
+	public DemanglerServer(SocketAddress address) throws IOException {
+		this(address, null);
+	}
+
+	/**
+	 * Binds a server to an address.  A Unix domain socket left behind by a server that is no
+	 * longer running is replaced.  The directory of a Unix domain socket is created, readable by
+	 * this user only, if it does not exist.
+	 * @param address the address to listen on, see {@link #parseAddress(String)}
+	 * @param pool the pool to demangle on, or null to demangle on the thread that serves
+	 * @throws IOException if the address is in use or cannot be bound, or if it is a Unix domain
+	 * socket that another user could replace, see {@link #isPrivate(Path)}
+	 */
+	public DemanglerServer(SocketAddress address, ForkJoinPool pool) throws IOException {
+		this.address = address;
+		this.pool = pool;
+		if (address instanceof UnixDomainSocketAddress) {
+			Path path = ((UnixDomainSocketAddress) address).getPath();
+			createPrivateDirectory(path.toAbsolutePath().getParent());
+			if (!isPrivate(path)) {
+				throw new IOException(path + " could be replaced by another user");
+			}
+			if (Files.exists(path)) {
+				if (isRunning(address)) {
+					throw new IOException("a server is already running on " + path);
+				}
+				Files.delete(path);
+			}
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		}
+		else {
+			server = ServerSocketChannel.open();
+		}
+		server.bind(address);
+		server.configureBlocking(false);
+		selector = Selector.open();
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Sets a cache shared by all connections accepted from now on, see
+	 * {@link StreamDemangler#setCache(DemangleCache)}
+	 * @param cache the cache, or null for none
+	 */
+	public void setCache(DemangleCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets a cache file shared by all connections accepted from now on, see
+	 * {@link StreamDemangler#setDiskCache(DiskCache)}; it is not closed with the server
+	 * @param diskCache the cache file, or null for none
+	 */
+	public void setDiskCache(DiskCache diskCache) {
+		this.cacheFile = diskCache;
+	}
+
+	/**
+	 * Sets a cache file shared with other processes for all connections accepted from now on,
+	 * see {@link StreamDemangler#setSharedCache(SharedCache)}; it is not closed with the server
+	 * @param sharedCache the shared cache, or null for none
+	 */
+	public void setSharedCache(SharedCache sharedCache) {
+		this.cacheFile = sharedCache;
+	}
+
+	/**
+	 * Returns the default address: the socket {@code cwd.sock} in {@code $XDG_RUNTIME_DIR}, or
+	 * in the directory {@code cwd-USER} of the temporary directory if it is not set, which a
+	 * server creates for this user only
+	 * @return the address servers and clients use unless told otherwise
+	 */
+	public static SocketAddress getDefaultAddress() {
+		String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+		if (runtimeDir != null && !runtimeDir.isEmpty()) {
+			return UnixDomainSocketAddress.of(Path.of(runtimeDir, "cwd.sock"));
+		}
+		return UnixDomainSocketAddress.of(Path.of(System.getProperty("java.io.tmpdir"),
+			"cwd-" + System.getProperty("user.name"), "cwd.sock"));
+	}
+
+	/**
+	 * Checks that a Unix domain socket is this user's, and that no other user can replace it:
+	 * its directory belongs to this user and no one else may write to it, or belongs to root
+	 * and is sticky if others may write to it, like the temporary directory.  Clients only
+	 * send symbols to, and trust the answers of, a server whose socket is private.
+	 * @param socket the path of the socket, which need not exist
+	 * @return true if the socket, if it exists, and its directory are private to this user
+	 */
+	public static boolean isPrivate(Path socket) {
+		try {
+			UserPrincipal user = socket.getFileSystem().getUserPrincipalLookupService()
+					.lookupPrincipalByName(System.getProperty("user.name"));
+			Path directory = socket.toAbsolutePath().getParent();
+			UserPrincipal directoryOwner = Files.getOwner(directory);
+			int mode = getMode(directory);
+			if (directoryOwner.equals(user)) {
+				if ((mode & 022) != 0) {
+					return false;
+				}
+			}
+			else if (!directoryOwner.getName().equals("root") ||
+				((mode & 022) != 0 && (mode & 01000) == 0)) {
+				return false;
+			}
+			if (!Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+				return true;
+			}
+			return !Files.isSymbolicLink(socket) &&
+				Files.getOwner(socket, LinkOption.NOFOLLOW_LINKS).equals(user);
+		}
+		catch (IOException | UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the Unix mode bits of a file, or 0 on a file system without them
+	 */
+	private static int getMode(Path path) throws IOException {
+		try {
+			return (Integer) Files.getAttribute(path, "unix:mode");
+		}
+		catch (UnsupportedOperationException | IllegalArgumentException e) {
+			return 0;
+		}
+	}
+
+	private static void createPrivateDirectory(Path directory) throws IOException {
+		if (Files.isDirectory(directory)) {
+			return;
+		}
+		try {
+			Files.createDirectory(directory,
+				PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		}
+		catch (UnsupportedOperationException e) {
+			Files.createDirectory(directory);
+		}
+		catch (FileAlreadyExistsException e) {
+			// created by another server meanwhile, and checked by isPrivate
+		}
+	}
+
+	/**
+	 * Parses a server address: a port number for a localhost TCP port, or else the path of a
+	 * Unix domain socket
+	 * @param address the address as given on the command line
+	 * @return the socket address
+	 */
+	public static SocketAddress parseAddress(String address) {
+		if (!address.isEmpty() && address.chars().allMatch(c -> c >= '0' && c <= '9')) {
+			return new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				Integer.parseInt(address));
+		}
+		return UnixDomainSocketAddress.of(address);
+	}
+
+	/**
+	 * Serves clients until the server is closed
+	 * @throws IOException if accepting connections fails
+	 */
+	public void serve() throws IOException {
+		try {
+			while (server.isOpen()) {
+				selector.select();
+
+				Connection connection;
+				while ((connection = demangled.poll()) != null) {
+					try {
+						connection.demangled();
+					}
+					catch (RuntimeException e) {
+						connection.close();
+					}
+				}
+
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					connection = (Connection) key.attachment();
+					try {
+						if (key.isWritable()) {
+							connection.write();
+						}
+						if (key.isValid() && key.isReadable()) {
+							connection.read();
+						}
+					}
+					catch (IOException e) {
+						// The client went away; nothing is left to answer
+						connection.close();
+					}
+					catch (RuntimeException e) {
+						// Only this client is dropped; it reports the symbols left unanswered
+						connection.close();
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+		}
+		finally {
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					((Connection) key.attachment()).close();
+				}
+			}
+			selector.close();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		key.attach(new Connection(channel, key));
+	}
+
+	/**
+	 * Stops serving, closing all connections, and removes the Unix domain socket
+	 * @throws IOException if closing fails
+	 */
+	@Override
+	public void close() throws IOException {
+		server.close();
+		selector.wakeup();
+		if (address instanceof UnixDomainSocketAddress) {
+			Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+		}
+	}
+
+	/**
+	 * The state of one client.  Input is read into a buffer until the connection is demangled;
+	 * then the complete lines in it are demangled into the output buffer, which is written out
+	 * before the next batch is started.
+	 */
+	private final class Connection implements Runnable {
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final Output output = new Output();
+		private final StreamDemangler demangler = new StreamDemangler(output);
+
+		private ByteBuffer input = ByteBuffer.allocate(StreamDemangler.BLOCK_SIZE);
+		private int batchLength;
+		private boolean isDemangling;
+		private boolean isFailed;
+		private boolean isEndOfInput;
+		private ByteBuffer answers;
+
+		Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+			demangler.setCache(cache);
+			demangler.setCacheFile(cacheFile);
+		}
+
+		void read() throws IOException {
+			if (channel.read(input) < 0) {
+				isEndOfInput = true;
+			}
+			startBatch();
+		}
+
+		/**
+		 * Hands the complete lines read so far to be demangled, unless a batch is still being
+		 * demangled or written; the last line counts as complete once the client closed
+		 */
+		private void startBatch() throws IOException {
+			if (isDemangling || answers != null) {
+				return;
+			}
+
+			int end = input.position();
+			if (!isEndOfInput) {
+				while (end > 0 && input.get(end - 1) != '\n') {
+					end--;
+				}
+			}
+			if (end == 0) {
+				if (isEndOfInput) {
+					close();
+				}
+				else if (!input.hasRemaining()) {
+					growInput();
+				}
+				return;
+			}
+
+			batchLength = end;
+			key.interestOps(0);
+			if (pool == null || batchLength < MIN_POOL_BATCH_SIZE) {
+				demangleBatch();
+				demangled();
+			}
+			else {
+				isDemangling = true;
+				pool.execute(this);
+			}
+		}
+
+		private void growInput() throws IOException {
+			if (input.capacity() >= MAX_LINE_LENGTH) {
+				throw new IOException("line too long");
+			}
+			ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+			input.flip();
+			larger.put(input);
+			input = larger;
+		}
+
+		/**
+		 * Demangles the batch on a worker of the pool
+		 */
+		@Override
+		public void run() {
+			try {
+				demangleBatch();
+			}
+			finally {
+				demangled.add(this);
+				selector.wakeup();
+			}
+		}
+
+		private void demangleBatch() {
+			try {
+				demangler.demangleLines(input, 0, batchLength);
+				demangler.flush();
+			}
+			catch (IOException e) {
+				// The output is in memory
+			}
+			catch (RuntimeException | StackOverflowError e) {
+				// Answering the lines after the symbol would misalign the answers
+				isFailed = true;
+			}
+		}
+
+		/**
+		 * Starts writing the answers to a batch once it has been demangled
+		 */
+		void demangled() {
+			isDemangling = false;
+			if (isFailed) {
+				close();
+				return;
+			}
+			input.flip();
+			input.position(batchLength);
+			input.compact();
+			answers = output.toByteBuffer();
+			try {
+				write();
+			}
+			catch (IOException e) {
+				close();
+			}
+		}
+
+		void write() throws IOException {
+			channel.write(answers);
+			if (answers.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+
+			answers = null;
+			output.clear();
+			key.interestOps(isEndOfInput ? 0 : SelectionKey.OP_READ);
+			startBatch();
+		}
+
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				// closed anyway
+			}
+		}
+	}
+
+	/**
+	 * The answers to one batch, handed to the channel without copying
+	 */
+	private static final class Output extends ByteArrayOutputStream {
+
+		ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+
+		void clear() {
+			reset();
+			if (buf.length > StreamDemangler.BLOCK_SIZE * 16) {
+				buf = new byte[StreamDemangler.BLOCK_SIZE];
+			}
+		}
+	}
+
+	/**
+	 * Checks if a server accepts connections at an address
+	 * @param address the address to try
+	 * @return true if a connection could be made
+	 */
+	public static boolean isRunning(SocketAddress address) {
+		try {
+			SocketChannel.open(address).close();
+			return true;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Demangles a stream of symbols, one per line, on a running server.  The symbols are sent
+	 * from another thread while the answers are read, so that neither side waits on the other
+	 * with full buffers.  A Unix domain socket is only used if it is private to this user, see
+	 * {@link #isPrivate(Path)}.
+	 * @param address the address of the server
+	 * @param in the symbols to send; it is not closed
+	 * @param out the stream the answers are copied to; it is flushed but not closed
+	 * @return false if there is no private server to connect to, or it did not accept the
+	 * connection, in which case nothing was read from the input
+	 * @throws IOException if the connection fails after it was made, or the server closes it
+	 * before it answered every symbol
+	 */
+	public static boolean forward(SocketAddress address, InputStream in, OutputStream out)
+			throws IOException {
+		if (address instanceof UnixDomainSocketAddress &&
+			!isPrivate(((UnixDomainSocketAddress) address).getPath())) {
+			return false;
+		}
+
+		SocketChannel channel;
+		try {
+			channel = SocketChannel.open(address);
+		}
+		catch (IOException e) {
+			return false;
+		}
+
+		LineCounter sent = new LineCounter();
+		LineCounter received = new LineCounter();
+		boolean[] isSent = new boolean[1];
+		Thread sender;
+		try (channel) {
+			// Channels streams would lock the channel for reading and writing alike, so the
+			// channel is used directly to read and write at the same time
+			sender = new Thread(() -> {
+				byte[] buffer = new byte[StreamDemangler.BLOCK_SIZE];
+				try {
+					int n;
+					while ((n = in.read(buffer)) >= 0) {
+						ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+						while (bytes.hasRemaining()) {
+							channel.write(bytes);
+						}
+						sent.count(buffer, n);
+					}
+					channel.shutdownOutput();
+					isSent[0] = true;
+				}
+				catch (IOException e) {
+					// Fail the reader below rather than leave it waiting for answers
+					try {
+						channel.close();
+					}
+					catch (IOException closeFailure) {
+						// already closing
+					}
+				}
+			}, "cwd-sender");
+			sender.setDaemon(true);
+			sender.start();
+
+			ByteBuffer answers = ByteBuffer.allocate(StreamDemangler.BLOCK_SIZE);
+			while (channel.read(answers) >= 0) {
+				out.write(answers.array(), 0, answers.position());
+				out.flush();
+				received.count(answers.array(), answers.position());
+				answers.clear();
+			}
+		}
+
+		// Closing the channel ends a sender the server stopped reading from
+		try {
+			sender.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while sending symbols");
+		}
+		if (!isSent[0]) {
+			throw new IOException("the server closed the connection before reading every symbol");
+		}
+		if (received.getLines() != sent.getLines()) {
+			throw new IOException("the server closed the connection after answering " +
+				received.getLines() + " of " + sent.getLines() + " symbols");
+		}
+		return true;
+	}
+
+	/**
+	 * Counts the lines in a stream of bytes, including a last one without a line break
+	 */
+	private static final class LineCounter {
+		private long lineBreaks;
+		private boolean isInLine;
+
+		void count(byte[] bytes, int length) {
+			for (int i = 0; i < length; i++) {
+				if (bytes[i] == '\n') {
+					lineBreaks++;
+				}
+			}
+			if (length > 0) {
+				isInLine = bytes[length - 1] != '\n';
+			}
+		}
+
+		long getLines() {
+			return lineBreaks + (isInLine ? 1 : 0);
+		}
+	}
+}
@@ -0,0 +1,601 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of demangled signatures kept in a file, so that one run of {@code cwd} finds the
+ * symbols of the runs before it.  Like {@link DemangleCache}, the value of a symbol is the text
+ * {@code cwd} outputs for it.
+ *
+ * <p>The file is a header followed by records that are only ever appended: the 64-bit hash of
+ * the symbol, the lengths of the symbol and its value, and their Latin-1 bytes.  When the cache
+ * is opened the file is memory mapped and indexed by hash, and lookups compare and copy bytes
+ * straight from the mapping.  Symbols added while it is open are kept in a bounded cache in
+ * memory as well and appended in batches, under a file lock, so several processes may share one
+ * file; each sees what the others added the next time it opens it.  A symbol that is in the file
+ * already, or that another process appended since the file was opened, is not appended again.
+ *
+ * <p>The header holds a stamp of the demangler implementation, a hash of the classes that
+ * produce the output.  A cache file written by a different implementation is emptied when
+ * opened, so a change to the parser never serves stale signatures.  A file that is not a cache
+ * file is refused rather than overwritten.
+ */
+public class DiskCache implements CacheFile, Flushable, Closeable {
+
+	/** The largest the file grows; a single mapping cannot exceed 2 GB */
+	public static final long MAX_FILE_SIZE = 1L << 30;
+
+	private static final long MAGIC = 0x4357444341434845L; // "CWDCACHE"
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int RECORD_HEADER_SIZE = 16;
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	// The most symbols kept in memory after they are added, and appended while the file is open
+	private static final int ADDED_ENTRIES = 1 << 16;
+	private static final int MAX_APPENDED = 1 << 22;
+
+	// The value length of a symbol that is output unchanged
+	private static final int UNCHANGED = -1;
+
+	private static final long STAMP = computeStamp(SignatureTransducer.class,
+		CodeWarriorDemangler.class, DemangledDataType.class, DemangledFunctionPointer.class,
+		MangledKind.class);
+
+	private final FileChannel channel;
+	private final ByteBuffer mapped;
+
+	// Open addressing index of the mapped records, by hash; an offset of 0 is an empty slot
+	private final long[] hashes;
+	private final int[] offsets;
+	private final int recordCount;
+
+	private final DemangleCache added = DemangleCache.withMaximumEntries(ADDED_ENTRIES);
+
+	// Records waiting to be appended, and the hashes of every record appended since the file
+	// was opened, by this process or by others up to where the file was last seen to end
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream(WRITE_BUFFER_SIZE);
+	private final LongSet appended = new LongSet(MAX_APPENDED);
+	private long fileSize;
+	private long appendedCount;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Opens a cache file, creating it if it does not exist.  A cache file written by another
+	 * version of the demangler is emptied, and a record cut short by a crash is dropped.
+	 * @param file the cache file
+	 * @throws IOException if the file cannot be opened, read or written, or if it is not empty
+	 * and not a cache file
+	 */
+	public DiskCache(Path file) throws IOException {
+		channel = open(file);
+		FileLock lock = null;
+		try {
+			lock = channel.lock();
+			long size = channel.size();
+			if (size == 0 || !isCurrent()) {
+				// Only a cache file is ever emptied, never a file the user wrote
+				if (size != 0 && !hasMagic()) {
+					throw new IOException("not a cache file");
+				}
+				channel.truncate(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putLong(MAGIC).putInt(FORMAT_VERSION).putInt(0).putLong(STAMP).flip();
+				channel.write(header, 0);
+				size = HEADER_SIZE;
+			}
+			mapped = channel.map(MapMode.READ_ONLY, 0, Math.min(size, MAX_FILE_SIZE));
+
+			int count = 0;
+			int position = HEADER_SIZE;
+			int end = mapped.capacity();
+			while (position + RECORD_HEADER_SIZE <= end) {
+				int length = getRecordLength(position);
+				if (length < 0 || position + (long) length > end ||
+					hash(mapped, position + RECORD_HEADER_SIZE,
+						position + RECORD_HEADER_SIZE + mapped.getInt(position + 8)) != mapped
+								.getLong(position)) {
+					break;
+				}
+				count++;
+				position += length;
+			}
+			if (position < size && size <= MAX_FILE_SIZE) {
+				channel.truncate(position);
+				size = position;
+			}
+			fileSize = size;
+
+			int capacity = Integer.highestOneBit(Math.max(count, 8) * 2 - 1) << 1;
+			hashes = new long[capacity];
+			offsets = new int[capacity];
+			recordCount = count;
+			for (int record = HEADER_SIZE, i = 0; i < count; i++) {
+				index(mapped.getLong(record), record);
+				record += getRecordLength(record);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		finally {
+			if (lock != null && lock.isValid()) {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Opens a file that is absent with {@link StandardOpenOption#CREATE_NEW}, so that a file
+	 * created by someone else in between is never taken for a new one
+	 */
+	private static FileChannel open(Path file) throws IOException {
+		try {
+			return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE_NEW);
+		}
+		catch (FileAlreadyExistsException e) {
+			return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+	}
+
+	/**
+	 * Returns the stamp of the demangler implementation that cache files are written for
+	 * @return a hash of the classes that produce the output
+	 */
+	public static long getImplementationStamp() {
+		return STAMP;
+	}
+
+	/**
+	 * Returns the value of a symbol, demangling and adding it if it is not in the cache
+	 * @param mangled the symbol
+	 * @return the signature, or the symbol itself if it could not be demangled
+	 */
+	public String demangle(String mangled) {
+		String value = get(mangled);
+		if (value == null) {
+			value = StreamDemangler.toOutput(mangled);
+			put(mangled, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the value of a symbol
+	 * @param mangled the symbol
+	 * @return the signature, the symbol itself if it could not be demangled, or null if it is
+	 * not in the cache
+	 */
+	public String get(String mangled) {
+		ByteBuffer key = latin1(mangled);
+		int record = key == null ? -1 : findRecord(key, 0, key.capacity());
+		if (record >= 0) {
+			hits.increment();
+			return getValue(record, mangled);
+		}
+		return getAdded(mangled);
+	}
+
+	@Override
+	public int find(ByteBuffer bytes, int from, int to) {
+		int record = findRecord(bytes, from, to);
+		if (record >= 0) {
+			hits.increment();
+		}
+		return record;
+	}
+
+	/**
+	 * Returns the value of a symbol added since the file was opened, counting a hit or a miss
+	 */
+	@Override
+	public String getAdded(String mangled) {
+		String value = added.get(mangled);
+		if (value == null) {
+			misses.increment();
+		}
+		else {
+			hits.increment();
+		}
+		return value;
+	}
+
+	@Override
+	public String getValue(int record, String mangled) {
+		int valueLength = mapped.getInt(record + 12);
+		if (valueLength == UNCHANGED) {
+			return mangled;
+		}
+		byte[] value = new byte[valueLength];
+		mapped.get(getValueStart(record), value);
+		return new String(value, StandardCharsets.ISO_8859_1);
+	}
+
+	@Override
+	public ByteBuffer getMapped() {
+		return mapped;
+	}
+
+	@Override
+	public int getValueStart(int record) {
+		return mapped.getInt(record + 12) == UNCHANGED ? record + RECORD_HEADER_SIZE
+				: record + RECORD_HEADER_SIZE + mapped.getInt(record + 8);
+	}
+
+	@Override
+	public int getValueEnd(int record) {
+		int valueLength = mapped.getInt(record + 12);
+		int valueStart = record + RECORD_HEADER_SIZE + mapped.getInt(record + 8);
+		return valueLength == UNCHANGED ? valueStart : valueStart + valueLength;
+	}
+
+	/**
+	 * Adds the value of a symbol, to be appended to the file.  Symbols that are already in the
+	 * file or appended, or are not Latin-1 text, are not added, nor is anything once the file is
+	 * full or {@value #MAX_APPENDED} symbols have been appended since it was opened.
+	 * @param mangled the symbol
+	 * @param value the signature, or the symbol itself if it could not be demangled
+	 */
+	@Override
+	public void put(String mangled, String value) {
+		ByteBuffer key = latin1(mangled);
+		ByteBuffer bytes = value == mangled ? key : latin1(value);
+		if (key == null || bytes == null || findRecord(key, 0, key.capacity()) >= 0) {
+			return;
+		}
+		added.put(mangled, value);
+
+		long hash = hash(key, 0, key.capacity());
+		synchronized (pending) {
+			int length = RECORD_HEADER_SIZE + key.capacity() + (value == mangled ? 0 : bytes.capacity());
+			if (fileSize + pending.size() + length > MAX_FILE_SIZE || !appended.add(hash)) {
+				return;
+			}
+			appendedCount++;
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+			header.putLong(hash);
+			header.putInt(key.capacity());
+			header.putInt(value == mangled ? UNCHANGED : bytes.capacity());
+			pending.write(header.array(), 0, RECORD_HEADER_SIZE);
+			pending.write(key.array(), 0, key.capacity());
+			if (value != mangled) {
+				pending.write(bytes.array(), 0, bytes.capacity());
+			}
+			if (pending.size() >= WRITE_BUFFER_SIZE) {
+				try {
+					flush();
+				}
+				catch (IOException e) {
+					// Not written this time; the symbols stay cached in memory
+				}
+			}
+		}
+	}
+
+	/**
+	 * Appends the symbols added so far to the file, but for those another process appended
+	 * meanwhile, unless another process has emptied it for a different version of the demangler
+	 * @throws IOException if writing fails
+	 */
+	@Override
+	public void flush() throws IOException {
+		synchronized (pending) {
+			if (pending.size() == 0) {
+				return;
+			}
+			FileLock lock = channel.lock();
+			try {
+				if (isCurrent()) {
+					long end = channel.size();
+					LongSet others = new LongSet(0);
+					if (end > fileSize && end <= MAX_FILE_SIZE) {
+						others = new LongSet((int) (end - fileSize) / RECORD_HEADER_SIZE);
+						end = readAppended(end, others);
+					}
+					ByteBuffer records = ByteBuffer.wrap(removeAppended(pending.toByteArray(),
+						others));
+					while (records.hasRemaining()) {
+						channel.write(records, end + records.position());
+					}
+					fileSize = end + records.capacity();
+				}
+			}
+			finally {
+				pending.reset();
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Collects the hashes of the records other processes appended since the file was last seen
+	 * to end, remembering them as appended, and drops a record cut short by a crash
+	 * @return where the file ends after the last whole record
+	 */
+	private long readAppended(long end, LongSet others) throws IOException {
+		ByteBuffer records = channel.map(MapMode.READ_ONLY, fileSize, end - fileSize);
+		int record = 0;
+		while (record + RECORD_HEADER_SIZE <= records.capacity()) {
+			int keyLength = records.getInt(record + 8);
+			int valueLength = records.getInt(record + 12);
+			long length = RECORD_HEADER_SIZE + (long) keyLength + Math.max(valueLength, 0);
+			if (keyLength < 0 || valueLength < UNCHANGED || record + length > records.capacity()) {
+				break;
+			}
+			others.add(records.getLong(record));
+			appended.add(records.getLong(record));
+			record += length;
+		}
+		if (record < records.capacity()) {
+			channel.truncate(fileSize + record);
+		}
+		return fileSize + record;
+	}
+
+	/**
+	 * Returns the records of a batch whose hashes are not in a set
+	 */
+	private byte[] removeAppended(byte[] batch, LongSet others) {
+		if (others.isEmpty()) {
+			return batch;
+		}
+		ByteBuffer records = ByteBuffer.wrap(batch);
+		int kept = 0;
+		for (int record = 0; record < batch.length;) {
+			int length = RECORD_HEADER_SIZE + records.getInt(record + 8) +
+				Math.max(records.getInt(record + 12), 0);
+			if (others.contains(records.getLong(record))) {
+				appendedCount--;
+			}
+			else {
+				System.arraycopy(batch, record, batch, kept, length);
+				kept += length;
+			}
+			record += length;
+		}
+		return Arrays.copyOf(batch, kept);
+	}
+
+	/**
+	 * Appends the symbols added so far and closes the file
+	 * @throws IOException if writing fails
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Returns the number of symbols in the cache
+	 * @return the records mapped from the file and the symbols appended since
+	 */
+	public long size() {
+		synchronized (pending) {
+			return recordCount + appendedCount;
+		}
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	private boolean isCurrent() throws IOException {
+		ByteBuffer header = readHeader();
+		return !header.hasRemaining() && header.getLong(0) == MAGIC &&
+			header.getInt(8) == FORMAT_VERSION && header.getLong(16) == STAMP;
+	}
+
+	/**
+	 * Checks that the file starts with the magic number of a cache file, of any version
+	 */
+	private boolean hasMagic() throws IOException {
+		ByteBuffer header = readHeader();
+		return header.position() >= 8 && header.getLong(0) == MAGIC;
+	}
+
+	private ByteBuffer readHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+			// read the whole header
+		}
+		return header;
+	}
+
+	private int getRecordLength(int record) {
+		int keyLength = mapped.getInt(record + 8);
+		int valueLength = mapped.getInt(record + 12);
+		if (keyLength < 0 || valueLength < UNCHANGED) {
+			return -1;
+		}
+		long length = RECORD_HEADER_SIZE + (long) keyLength + Math.max(valueLength, 0);
+		return length > Integer.MAX_VALUE ? -1 : (int) length;
+	}
+
+	private void index(long hash, int record) {
+		int mask = offsets.length - 1;
+		int slot = (int) hash & mask;
+		while (offsets[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		hashes[slot] = hash;
+		offsets[slot] = record;
+	}
+
+	private int findRecord(ByteBuffer bytes, int from, int to) {
+		long hash = hash(bytes, from, to);
+		int mask = offsets.length - 1;
+		for (int slot = (int) hash & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+			int record = offsets[slot];
+			if (hashes[slot] == hash && mapped.getInt(record + 8) == to - from &&
+				equals(record + RECORD_HEADER_SIZE, bytes, from, to)) {
+				return record;
+			}
+		}
+		return -1;
+	}
+
+	private boolean equals(int start, ByteBuffer bytes, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (mapped.get(start++) != bytes.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the Latin-1 bytes of a string, or null if it has other characters
+	 */
+	static ByteBuffer latin1(String text) {
+		byte[] bytes = new byte[text.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			char c = text.charAt(i);
+			if (c > 0xff) {
+				return null;
+			}
+			bytes[i] = (byte) c;
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * Hashes bytes with 64-bit FNV-1a, followed by a final mix so that the low bits used to pick
+	 * a slot depend on every byte
+	 */
+	static long hash(ByteBuffer bytes, int from, int to) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = from; i < to; i++) {
+			hash = (hash ^ (bytes.get(i) & 0xff)) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private static long computeStamp(Class<?>... classes) {
+		long stamp = FORMAT_VERSION;
+		for (Class<?> type : classes) {
+			String name = type.getSimpleName() + ".class";
+			try (InputStream in = type.getResourceAsStream(name)) {
+				if (in == null) {
+					// Without the class files nothing tells versions apart, so no file is reused
+					return System.nanoTime();
+				}
+				byte[] bytes = in.readAllBytes();
+				stamp = stamp * 31 + hash(ByteBuffer.wrap(bytes), 0, bytes.length);
+			}
+			catch (IOException e) {
+				return System.nanoTime();
+			}
+		}
+		return stamp;
+	}
+
+	/**
+	 * An open addressing set of 64-bit hashes, which stops taking new ones once it holds its
+	 * maximum.  Zero is kept aside, as it marks an empty slot.
+	 */
+	private static final class LongSet {
+		private final int maximum;
+		private long[] slots = new long[16];
+		private boolean hasZero;
+		private int size;
+
+		LongSet(int maximum) {
+			this.maximum = maximum;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		boolean contains(long value) {
+			if (value == 0) {
+				return hasZero;
+			}
+			int mask = slots.length - 1;
+			for (int slot = (int) value & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+				if (slots[slot] == value) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Adds a value if there is room for it
+		 * @return true if the value was added, false if it was there already or the set is full
+		 */
+		boolean add(long value) {
+			if (contains(value) || size >= maximum) {
+				return false;
+			}
+			size++;
+			if (value == 0) {
+				hasZero = true;
+				return true;
+			}
+			if (size * 2 > slots.length) {
+				long[] old = slots;
+				slots = new long[old.length * 2];
+				for (long v : old) {
+					if (v != 0) {
+						insert(v);
+					}
+				}
+			}
+			insert(value);
+			return true;
+		}
+
+		private void insert(long value) {
+			int mask = slots.length - 1;
+			int slot = (int) value & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = value;
+		}
+	}
+}
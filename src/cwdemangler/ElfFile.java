@@ -0,0 +1,221 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The symbol table of a 32-bit big-endian ELF file, as written by CodeWarrior for PowerPC, read
+ * in place from a buffer holding the file.  Symbols are addressed by their index in
+ * {@code .symtab}, and names are returned as ranges of the buffer, so nothing is copied or
+ * decoded for symbols the caller is not interested in.
+ */
+public final class ElfFile {
+
+	public static final int STT_SECTION = 3;
+	public static final int STT_FILE = 4;
+
+	public static final int SHN_UNDEF = 0;
+	public static final int SHN_LORESERVE = 0xff00;
+	public static final int SHN_ABS = 0xfff1;
+	public static final int SHN_COMMON = 0xfff2;
+
+	private static final int SHT_SYMTAB = 2;
+	private static final int SECTION_HEADER_SIZE = 40;
+	private static final int SYMBOL_SIZE = 16;
+
+	private final ByteBuffer bytes;
+	private final int sectionHeaders;
+	private final int sectionCount;
+	private final int sectionNames;
+	private final int sectionNamesEnd;
+
+	private int symbols;
+	private int symbolCount;
+	private int names;
+	private int namesEnd;
+
+	/**
+	 * Reads the headers of an ELF file
+	 * @param bytes the whole file, starting at index 0; its position and limit are not used
+	 * @throws ElfException if the buffer does not hold a 32-bit big-endian ELF file, or a table
+	 * lies outside of it
+	 */
+	public ElfFile(ByteBuffer bytes) throws ElfException {
+		this.bytes = bytes.duplicate().order(ByteOrder.BIG_ENDIAN);
+		if (!isElf(bytes) || bytes.capacity() < 0x34 || bytes.get(4) != 1 || bytes.get(5) != 2) {
+			throw new ElfException("not a 32-bit big-endian ELF file");
+		}
+
+		sectionHeaders = this.bytes.getInt(0x20);
+		sectionCount = this.bytes.getShort(0x30) & 0xffff;
+		checkRange(sectionHeaders, (long) sectionCount * SECTION_HEADER_SIZE);
+
+		int namesIndex = this.bytes.getShort(0x32) & 0xffff;
+		if (namesIndex < sectionCount) {
+			sectionNames = getSectionOffset(namesIndex);
+			sectionNamesEnd = sectionNames + getSectionSize(namesIndex);
+		}
+		else {
+			sectionNames = 0;
+			sectionNamesEnd = 0;
+		}
+
+		for (int i = 0; i < sectionCount; i++) {
+			if (getSectionType(i) == SHT_SYMTAB) {
+				symbols = getSectionOffset(i);
+				symbolCount = getSectionSize(i) / SYMBOL_SIZE;
+				int link = getSectionInt(i, 24);
+				if (link >= sectionCount) {
+					throw new ElfException("invalid string table for .symtab");
+				}
+				names = getSectionOffset(link);
+				namesEnd = names + getSectionSize(link);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Checks if a buffer starts with the ELF magic number
+	 * @param bytes the buffer, starting at index 0
+	 * @return true if it holds an ELF file of any kind
+	 */
+	public static boolean isElf(ByteBuffer bytes) {
+		return bytes.capacity() >= 4 && bytes.get(0) == 0x7f && bytes.get(1) == 'E' &&
+			bytes.get(2) == 'L' && bytes.get(3) == 'F';
+	}
+
+	/**
+	 * Returns the buffer the file is read from; name offsets index into it
+	 * @return the buffer, in big-endian order
+	 */
+	public ByteBuffer getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of entries in {@code .symtab}, including the null symbol at index 0
+	 * @return the number of symbols, or 0 if the file has no symbol table
+	 */
+	public int getSymbolCount() {
+		return symbolCount;
+	}
+
+	public int getSymbolValue(int symbol) {
+		return bytes.getInt(symbols + symbol * SYMBOL_SIZE + 4);
+	}
+
+	public int getSymbolSize(int symbol) {
+		return bytes.getInt(symbols + symbol * SYMBOL_SIZE + 8);
+	}
+
+	/**
+	 * Returns the type of a symbol, such as {@link #STT_SECTION}
+	 * @param symbol the symbol index
+	 * @return the low four bits of {@code st_info}
+	 */
+	public int getSymbolType(int symbol) {
+		return bytes.get(symbols + symbol * SYMBOL_SIZE + 12) & 0xf;
+	}
+
+	/**
+	 * Returns the index of the section a symbol is defined in
+	 * @param symbol the symbol index
+	 * @return the section index, or a reserved index such as {@link #SHN_UNDEF}
+	 */
+	public int getSymbolSection(int symbol) {
+		return bytes.getShort(symbols + symbol * SYMBOL_SIZE + 14) & 0xffff;
+	}
+
+	/**
+	 * Returns where the name of a symbol starts in the buffer
+	 * @param symbol the symbol index
+	 * @return the offset of the name, or -1 if it lies outside of the string table
+	 */
+	public int getSymbolNameStart(int symbol) {
+		return nameStart(names, namesEnd, bytes.getInt(symbols + symbol * SYMBOL_SIZE));
+	}
+
+	/**
+	 * Returns where the name of a symbol ends in the buffer, at its terminating NUL
+	 * @param symbol the symbol index
+	 * @return the end of the name
+	 */
+	public int getSymbolNameEnd(int symbol) {
+		return nameEnd(getSymbolNameStart(symbol), namesEnd);
+	}
+
+	public int getSectionCount() {
+		return sectionCount;
+	}
+
+	/**
+	 * Returns where the name of a section starts in the buffer
+	 * @param section the section index
+	 * @return the offset of the name, or -1 if the file has no section names
+	 */
+	public int getSectionNameStart(int section) {
+		return nameStart(sectionNames, sectionNamesEnd, getSectionInt(section, 0));
+	}
+
+	/**
+	 * Returns where the name of a section ends in the buffer, at its terminating NUL
+	 * @param section the section index
+	 * @return the end of the name
+	 */
+	public int getSectionNameEnd(int section) {
+		return nameEnd(getSectionNameStart(section), sectionNamesEnd);
+	}
+
+	private int getSectionType(int section) {
+		return getSectionInt(section, 4);
+	}
+
+	private int getSectionOffset(int section) throws ElfException {
+		int offset = getSectionInt(section, 16);
+		checkRange(offset, Integer.toUnsignedLong(getSectionInt(section, 20)));
+		return offset;
+	}
+
+	private int getSectionSize(int section) {
+		return getSectionInt(section, 20);
+	}
+
+	private int getSectionInt(int section, int field) {
+		return bytes.getInt(sectionHeaders + section * SECTION_HEADER_SIZE + field);
+	}
+
+	private void checkRange(int offset, long size) throws ElfException {
+		if (offset < 0 || offset + size > bytes.capacity()) {
+			throw new ElfException("truncated ELF file");
+		}
+	}
+
+	private static int nameStart(int table, int tableEnd, int name) {
+		return name < 0 || name >= tableEnd - table ? -1 : table + name;
+	}
+
+	private int nameEnd(int start, int tableEnd) {
+		if (start < 0) {
+			return -1;
+		}
+		int end = start;
+		while (end < tableEnd && bytes.get(end) != 0) {
+			end++;
+		}
+		return end;
+	}
+}
@@ -0,0 +1,90 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * A {@link CharSequence} view over ASCII or ISO-8859-1 encoded bytes, such as a symbol in a
+ * map file or an ELF string table.  Each byte is one character; nothing is decoded or copied
+ * until {@link #toString()} is called.
+ */
+public class Latin1CharSequence implements CharSequence {
+
+	private ByteBuffer buffer;
+	private int offset;
+	private int length;
+
+	/**
+	 * Creates an empty view, to be pointed at a buffer with {@link #reset(ByteBuffer, int, int)}
+	 */
+	public Latin1CharSequence() {
+		this.buffer = ByteBuffer.allocate(0);
+	}
+
+	public Latin1CharSequence(byte[] bytes, int offset, int length) {
+		this(ByteBuffer.wrap(bytes), offset, length);
+	}
+
+	public Latin1CharSequence(ByteBuffer buffer, int offset, int length) {
+		reset(buffer, offset, length);
+	}
+
+	/**
+	 * Points this view at a new range of bytes.  The position and limit of the buffer are
+	 * not used or modified; the range is given in absolute indices.
+	 * @param buffer the buffer holding the characters
+	 * @param offset the absolute index of the first character
+	 * @param length the number of characters
+	 * @return this view
+	 */
+	public Latin1CharSequence reset(ByteBuffer buffer, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, buffer.capacity());
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		Objects.checkIndex(index, length);
+		return (char) (buffer.get(offset + index) & 0xFF);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		Objects.checkFromToIndex(start, end, length);
+		return new Latin1CharSequence(buffer, offset + start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + offset, length,
+				StandardCharsets.ISO_8859_1);
+		}
+
+		byte[] bytes = new byte[length];
+		buffer.get(offset, bytes);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,172 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the symbol column in the lines of a CodeWarrior linker map ({@code .map} file).  The
+ * lines that name a symbol are
+ *
+ * <pre>
+ *   3] fn__3FooFv (func,global) found in foo.o
+ * &gt;&gt;&gt; SYMBOL NOT FOUND: fn__3FooFv
+ *   00000034 00003c 800056f4 000005f4  4 fn__3FooFv 	foo.o
+ *   UNUSED   000020 ........ fn__3BarFv foo.o
+ * </pre>
+ *
+ * the first from the link map tree and the last two from a section layout, where the file
+ * offset and alignment columns are not written by every linker version.  Each kind of line is
+ * recognized from its own shape, so a line can be looked at without knowing which part of the
+ * map it is in.
+ */
+final class LinkerMap {
+
+	private static final byte[] NOT_FOUND = ">>> SYMBOL NOT FOUND: ".getBytes();
+	private static final byte[] UNUSED = "UNUSED".getBytes();
+	private static final byte[] NO_ADDRESS = "........".getBytes();
+
+	private LinkerMap() {
+		// utility class
+	}
+
+	/**
+	 * Finds the symbol in a line of a linker map
+	 * @param bytes the buffer holding the line; its position and limit are not used
+	 * @param from the absolute index of the first byte of the line
+	 * @param to the end of the line, not including its terminator
+	 * @return the index the symbol starts at, or -1 if the line does not name one; the symbol
+	 * ends at the next space, tab or the end of the line, see {@link #symbolEnd}
+	 */
+	static int findSymbol(ByteBuffer bytes, int from, int to) {
+		if (startsWith(bytes, from, to, NOT_FOUND)) {
+			return from + NOT_FOUND.length;
+		}
+
+		int i = skipSpaces(bytes, from, to);
+
+		// Link map tree: a nesting level, then the symbol
+		int digits = skipDigits(bytes, i, to);
+		if (digits > i && digits < to && bytes.get(digits) == ']') {
+			return symbolOrNone(bytes, skipSpaces(bytes, digits + 1, to), to);
+		}
+
+		// Section layout: starting address, size and virtual address
+		int next;
+		if (startsWith(bytes, i, to, UNUSED)) {
+			next = i + UNUSED.length;
+		}
+		else {
+			next = skipHexDigits(bytes, i, to);
+			if (next - i != 8) {
+				return -1;
+			}
+		}
+		i = skipColumnSeparator(bytes, next, to);
+		if (i < 0) {
+			return -1;
+		}
+		next = skipHexDigits(bytes, i, to);
+		if (next == i) {
+			return -1;
+		}
+		i = skipColumnSeparator(bytes, next, to);
+		if (i < 0) {
+			return -1;
+		}
+		next = startsWith(bytes, i, to, NO_ADDRESS) ? i + NO_ADDRESS.length
+				: skipHexDigits(bytes, i, to);
+		if (next - i != 8) {
+			return -1;
+		}
+		i = skipColumnSeparator(bytes, next, to);
+		if (i < 0) {
+			return -1;
+		}
+
+		// Then maybe the file offset and the alignment, which are told apart by their width
+		next = startsWith(bytes, i, to, NO_ADDRESS) ? i + NO_ADDRESS.length
+				: skipHexDigits(bytes, i, to);
+		if (next - i == 8 && next < to && isSpace(bytes.get(next))) {
+			i = skipSpaces(bytes, next, to);
+		}
+		next = skipDigits(bytes, i, to);
+		if (next > i && next - i < 8 && next < to && isSpace(bytes.get(next))) {
+			i = skipSpaces(bytes, next, to);
+		}
+		return symbolOrNone(bytes, i, to);
+	}
+
+	/**
+	 * Returns the end of the symbol starting at the given index
+	 */
+	static int symbolEnd(ByteBuffer bytes, int symbolStart, int to) {
+		int i = symbolStart;
+		while (i < to && !isSpace(bytes.get(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int symbolOrNone(ByteBuffer bytes, int i, int to) {
+		return i < to && !isSpace(bytes.get(i)) ? i : -1;
+	}
+
+	private static boolean startsWith(ByteBuffer bytes, int from, int to, byte[] prefix) {
+		if (to - from < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (bytes.get(from + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the start of the next column, or -1 if the current one is not followed by spaces
+	 */
+	private static int skipColumnSeparator(ByteBuffer bytes, int i, int to) {
+		if (i >= to || !isSpace(bytes.get(i))) {
+			return -1;
+		}
+		return skipSpaces(bytes, i, to);
+	}
+
+	private static int skipSpaces(ByteBuffer bytes, int i, int to) {
+		while (i < to && isSpace(bytes.get(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int skipDigits(ByteBuffer bytes, int i, int to) {
+		while (i < to && Character.isDigit(bytes.get(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int skipHexDigits(ByteBuffer bytes, int i, int to) {
+		while (i < to && Character.digit(bytes.get(i), 16) >= 0) {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+}
@@ -0,0 +1,43 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+/**
+ * The shape of a symbol as determined by {@link CodeWarriorDemangler#classify(CharSequence)},
+ * without demangling it.
+ */
+public enum MangledKind {
+	/** Not mangled: a plain C name, a compiler temporary such as {@code @123}, or a stub */
+	PLAIN,
+	/** A virtual thunk, {@code @offset@function__...} */
+	THUNK,
+	/** A constructor, {@code __ct__...} */
+	CONSTRUCTOR,
+	/** A destructor, {@code __dt__...} */
+	DESTRUCTOR,
+	/** An overloaded operator, such as {@code __pl__...} */
+	OPERATOR,
+	/** Any other function or method */
+	FUNCTION,
+	/** A static data member or compiler-generated table of a class, such as {@code __vt__...} */
+	DATA_MEMBER;
+
+	/**
+	 * Returns true if symbols of this kind are worth handing to the demangler
+	 * @return true if mangled
+	 */
+	public boolean isMangled() {
+		return this != PLAIN;
+	}
+}
@@ -0,0 +1,522 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A table of demangled signatures in a memory-mapped file that any number of {@code cwd}
+ * processes read and add to at the same time, such as the jobs of a parallel build, without a
+ * server or any lock.  Like {@link DemangleCache}, the value of a symbol is the text {@code cwd}
+ * outputs for it.
+ *
+ * <p>The file has a fixed size, set when it is created: a header, an open addressing table of
+ * slots, and an area the records of symbols and their values are allocated from.  A process
+ * adding a symbol that is not in the table yet reserves room for its record by a compare-and-set
+ * that advances the top of that area, but never past its end.  It writes the record, then claims
+ * a slot by a compare-and-set of its hash from zero and publishes the offset of the record in
+ * it.  Readers only follow published offsets, so they never see a record being written.  Once
+ * the records or three quarters of the slots run out, symbols are no longer added, but lookups
+ * go on.
+ *
+ * <p>Like {@link DiskCache}, the header holds a stamp of the demangler implementation.  A file
+ * from another version is replaced by a new one, rather than cleared, so that processes still
+ * using the old one are not disturbed.  A file that is not a shared cache file is refused
+ * rather than replaced.
+ */
+public class SharedCache implements CacheFile, Closeable {
+
+	/** The size of a file created without one being given */
+	public static final long DEFAULT_SIZE = 64L << 20;
+
+	/** The largest size of a file, which is mapped as a whole */
+	public static final long MAX_SIZE = 1L << 30;
+
+	private static final long MAGIC = 0x4357445348415245L; // "CWDSHARE"
+	private static final int FORMAT_VERSION = 1;
+
+	// The header, with longs at offsets that are multiples of 8 for atomic access
+	private static final int SLOT_COUNT = 12;
+	private static final int STAMP = 16;
+	private static final int TOP = 24;
+	private static final int ENTRIES = 32;
+	private static final int HITS = 40;
+	private static final int MISSES = 48;
+	private static final int HEADER_SIZE = 64;
+
+	// A slot holds the hash of a symbol, or 0 if it is free, and the offset of its record, or 0
+	// until the record is published
+	private static final int SLOT_SIZE = 16;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int UNCHANGED = -1;
+
+	private static final VarHandle LONGS =
+		MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	private final MappedByteBuffer mapped;
+	private final int slotCount;
+	private final int dataStart;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private boolean isClosed;
+
+	/**
+	 * Opens a shared cache file, creating it with the default size if it does not exist
+	 * @param file the cache file
+	 * @throws IOException if the file cannot be opened or created
+	 */
+	public SharedCache(Path file) throws IOException {
+		this(file, DEFAULT_SIZE);
+	}
+
+	/**
+	 * Opens a shared cache file, creating it if it does not exist or was made by another
+	 * version of the demangler.  Only one of the processes that find no file, or the same old
+	 * one, puts a new file in its place, and all of them then open that file.  The file is
+	 * readable by other users, who only look symbols up in it.
+	 * @param file the cache file
+	 * @param size the size of the file if it is created, at most {@link #MAX_SIZE}
+	 * @throws IOException if the file cannot be opened or created, or if it is not empty and
+	 * not a shared cache file
+	 */
+	public SharedCache(Path file, long size) throws IOException {
+		if (size < HEADER_SIZE * 2 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid shared cache size " + size);
+		}
+
+		MappedByteBuffer buffer = null;
+		for (int attempt = 0; buffer == null; attempt++) {
+			if (attempt == 8) {
+				throw new IOException("cannot create " + file);
+			}
+			Object key = getFileKey(file);
+			if (key == null) {
+				create(file, size, null);
+				continue;
+			}
+			buffer = open(file, key);
+			if (buffer == null && key.equals(getFileKey(file))) {
+				create(file, size, key);
+			}
+		}
+		mapped = buffer;
+		slotCount = mapped.getInt(SLOT_COUNT);
+		dataStart = HEADER_SIZE + slotCount * SLOT_SIZE;
+	}
+
+	/**
+	 * Maps a file if it is still the one with the given key and a shared cache for this version
+	 * of the demangler.  A file this user cannot write is mapped read-only.
+	 * @return the mapping, or null if the file was replaced meanwhile, or is empty or a shared
+	 * cache of another version
+	 * @throws IOException if the file cannot be mapped or is not a shared cache file
+	 */
+	private static MappedByteBuffer open(Path file, Object key) throws IOException {
+		boolean isWritable = Files.isWritable(file);
+		try (FileChannel channel = isWritable ? FileChannel.open(file, StandardOpenOption.READ,
+			StandardOpenOption.WRITE) : FileChannel.open(file, StandardOpenOption.READ)) {
+			if (!key.equals(getFileKey(file)) || !isCurrent(channel)) {
+				return null;
+			}
+			return channel.map(isWritable ? MapMode.READ_WRITE : MapMode.READ_ONLY, 0,
+				channel.size());
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks that a file is a shared cache for this version of the demangler
+	 * @return true if it is, false if it is empty or a shared cache of another version
+	 * @throws IOException if the file cannot be read or is not a shared cache file
+	 */
+	private static boolean isCurrent(FileChannel channel) throws IOException {
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+			// read the whole header
+		}
+		if (size == 0) {
+			return false;
+		}
+		if (header.position() < 8 || header.getLong(0) != MAGIC) {
+			throw new IOException("not a shared cache file");
+		}
+		int slots = header.getInt(SLOT_COUNT);
+		return !header.hasRemaining() && size <= MAX_SIZE && header.getInt(8) == FORMAT_VERSION &&
+			header.getLong(STAMP) == DiskCache.getImplementationStamp() && slots > 0 &&
+			Integer.bitCount(slots) == 1 && HEADER_SIZE + (long) slots * SLOT_SIZE < size;
+	}
+
+	/**
+	 * Returns what identifies the file a path names, which changes when another file is moved
+	 * in its place
+	 * @return the key of the file, or null if there is none
+	 */
+	private static Object getFileKey(Path file) throws IOException {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+		Object key = attributes.fileKey();
+		return key != null ? key : attributes.creationTime();
+	}
+
+	/**
+	 * Writes an empty cache next to a file, then links it in place of the file if there is
+	 * none, or moves it over the file with the given key if that is still there and still not a
+	 * current cache
+	 */
+	private static void create(Path file, long size, Object replaced) throws IOException {
+		// A quarter of the file for slots, which suits the average length of a symbol and its
+		// signature
+		int slots = Integer.highestOneBit((int) (size / 4 / SLOT_SIZE));
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putLong(0, MAGIC);
+		header.putInt(8, FORMAT_VERSION);
+		header.putInt(SLOT_COUNT, slots);
+		header.putLong(STAMP, DiskCache.getImplementationStamp());
+		header.putLong(TOP, HEADER_SIZE + (long) slots * SLOT_SIZE);
+
+		Path directory = file.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, file.getFileName() + ".", ".tmp");
+		try {
+			try {
+				Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-r--r--"));
+			}
+			catch (UnsupportedOperationException e) {
+				// not a POSIX file system
+			}
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+				// The rest of the file reads as zeros, which is an empty table
+				channel.write(ByteBuffer.allocate(1), size - 1);
+			}
+
+			if (replaced == null) {
+				try {
+					// Only one of the processes finding no file gets to create it
+					Files.createLink(file, temporary);
+				}
+				catch (FileAlreadyExistsException e) {
+					// created by another process meanwhile
+				}
+				return;
+			}
+
+			// Processes replacing the same file take turns on its lock, and only the first finds
+			// the path still naming it
+			try (FileChannel old = FileChannel.open(file, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+				FileLock lock = old.lock();
+				try {
+					if (replaced.equals(getFileKey(file)) && !isCurrent(old)) {
+						Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+							StandardCopyOption.REPLACE_EXISTING);
+					}
+				}
+				finally {
+					lock.release();
+				}
+			}
+			catch (NoSuchFileException e) {
+				// removed meanwhile
+			}
+		}
+		finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Returns the value of a symbol, demangling and adding it if it is not in the cache
+	 * @param mangled the symbol
+	 * @return the signature, or the symbol itself if it could not be demangled
+	 */
+	public String demangle(String mangled) {
+		String value = get(mangled);
+		if (value == null) {
+			value = StreamDemangler.toOutput(mangled);
+			put(mangled, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the value of a symbol
+	 * @param mangled the symbol
+	 * @return the signature, the symbol itself if it could not be demangled, or null if it is
+	 * not in the cache
+	 */
+	public String get(String mangled) {
+		ByteBuffer key = DiskCache.latin1(mangled);
+		int record = key == null ? -1 : find(key, 0, key.capacity());
+		if (record < 0) {
+			misses.increment();
+			return null;
+		}
+		return getValue(record, mangled);
+	}
+
+	@Override
+	public int find(ByteBuffer bytes, int from, int to) {
+		int record = findRecord(bytes, from, to);
+		if (record >= 0) {
+			hits.increment();
+		}
+		return record;
+	}
+
+	private int findRecord(ByteBuffer bytes, int from, int to) {
+		long hash = hash(bytes, from, to);
+		int mask = slotCount - 1;
+		int slot = (int) hash & mask;
+		for (int probes = 0; probes < slotCount; probes++, slot = (slot + 1) & mask) {
+			int offset = HEADER_SIZE + slot * SLOT_SIZE;
+			long tag = (long) LONGS.getAcquire(mapped, offset);
+			if (tag == 0) {
+				break;
+			}
+			if (tag == hash) {
+				// A record still being added is not published yet, and is skipped
+				long record = (long) LONGS.getAcquire(mapped, offset + 8);
+				if (record != 0 && matches(record, bytes, from, to)) {
+					return (int) record;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Counts a miss: every symbol added is in the table, and found by
+	 * {@link #find(ByteBuffer, int, int)}
+	 * @return null
+	 */
+	@Override
+	public String getAdded(String mangled) {
+		misses.increment();
+		return null;
+	}
+
+	@Override
+	public String getValue(int record, String mangled) {
+		int valueLength = getValueLength(record);
+		if (valueLength == UNCHANGED) {
+			return mangled;
+		}
+		byte[] value = new byte[valueLength];
+		mapped.get(getValueStart(record), value);
+		return new String(value, StandardCharsets.ISO_8859_1);
+	}
+
+	@Override
+	public ByteBuffer getMapped() {
+		return mapped;
+	}
+
+	@Override
+	public int getValueStart(int record) {
+		return getValueLength(record) == UNCHANGED ? record + RECORD_HEADER_SIZE
+				: record + RECORD_HEADER_SIZE + mapped.getInt(record);
+	}
+
+	@Override
+	public int getValueEnd(int record) {
+		int valueLength = getValueLength(record);
+		int valueStart = record + RECORD_HEADER_SIZE + mapped.getInt(record);
+		return valueLength == UNCHANGED ? valueStart : valueStart + valueLength;
+	}
+
+	/**
+	 * Returns the length of the value of a record, after checking that the whole record lies in
+	 * the area records are allocated from, since any process may have written to the file
+	 * @throws IndexOutOfBoundsException if the record lies outside that area
+	 */
+	private int getValueLength(int record) {
+		if (!isWithinBounds(record)) {
+			throw new IndexOutOfBoundsException("Invalid record at " + record);
+		}
+		return mapped.getInt(record + 4);
+	}
+
+	/**
+	 * Adds the value of a symbol for every process sharing the file, unless the file is full,
+	 * belongs to another user, or the symbol is not Latin-1 text.  Two processes adding the same symbol at once may both
+	 * succeed, in which case lookups find the first.
+	 * @param mangled the symbol
+	 * @param value the signature, or the symbol itself if it could not be demangled
+	 */
+	@Override
+	public void put(String mangled, String value) {
+		ByteBuffer key = DiskCache.latin1(mangled);
+		ByteBuffer bytes = value == mangled ? key : DiskCache.latin1(value);
+		if (mapped.isReadOnly() || key == null || bytes == null ||
+			(long) LONGS.getAcquire(mapped, ENTRIES) >= slotCount / 4 * 3 ||
+			findRecord(key, 0, key.capacity()) >= 0) {
+			return;
+		}
+
+		// Reserve room for the record, never moving the top past the end of the file
+		int keyLength = key.capacity();
+		int valueLength = value == mangled ? UNCHANGED : bytes.capacity();
+		int length = RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+		long record;
+		do {
+			record = (long) LONGS.getAcquire(mapped, TOP);
+			if (record < dataStart || record + length > mapped.capacity()) {
+				return;
+			}
+		}
+		while (!LONGS.compareAndSet(mapped, TOP, record, record + length));
+		int offset = (int) record;
+		mapped.putInt(offset, keyLength);
+		mapped.putInt(offset + 4, valueLength);
+		mapped.put(offset + RECORD_HEADER_SIZE, key.array());
+		if (valueLength != UNCHANGED) {
+			mapped.put(offset + RECORD_HEADER_SIZE + keyLength, bytes.array());
+		}
+
+		long hash = hash(key, 0, keyLength);
+		int mask = slotCount - 1;
+		int slot = (int) hash & mask;
+		for (int probes = 0; probes < slotCount; probes++, slot = (slot + 1) & mask) {
+			int slotOffset = HEADER_SIZE + slot * SLOT_SIZE;
+			long tag = (long) LONGS.getAcquire(mapped, slotOffset);
+			if (tag == 0) {
+				if (LONGS.compareAndSet(mapped, slotOffset, 0L, hash)) {
+					// The release orders the record before the offset that publishes it
+					LONGS.setRelease(mapped, slotOffset + 8, record);
+					LONGS.getAndAdd(mapped, ENTRIES, 1L);
+					return;
+				}
+				tag = (long) LONGS.getAcquire(mapped, slotOffset);
+			}
+			if (tag == hash) {
+				long other = (long) LONGS.getAcquire(mapped, slotOffset + 8);
+				if (other != 0 && matches(other, key, 0, keyLength)) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the hits and misses of this process to the totals of all processes kept in the
+	 * file.  The mapping stays valid until the cache is collected.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!isClosed && !mapped.isReadOnly()) {
+			isClosed = true;
+			LONGS.getAndAdd(mapped, HITS, hits.sum());
+			LONGS.getAndAdd(mapped, MISSES, misses.sum());
+		}
+	}
+
+	/**
+	 * Returns the number of symbols in the cache, added by any process
+	 * @return the number of slots claimed
+	 */
+	public long size() {
+		return (long) LONGS.getAcquire(mapped, ENTRIES);
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the hits of every process that has closed the cache since the file was created
+	 * @return the total number of hits
+	 */
+	public long getTotalHitCount() {
+		return (long) LONGS.getAcquire(mapped, HITS);
+	}
+
+	/**
+	 * Returns the misses of every process that has closed the cache since the file was created
+	 * @return the total number of misses
+	 */
+	public long getTotalMissCount() {
+		return (long) LONGS.getAcquire(mapped, MISSES);
+	}
+
+	/**
+	 * Checks that a record lies within the file and holds a symbol
+	 */
+	private boolean matches(long record, ByteBuffer bytes, int from, int to) {
+		if (!isWithinBounds(record) || mapped.getInt((int) record) != to - from) {
+			return false;
+		}
+		for (int i = from, j = (int) record + RECORD_HEADER_SIZE; i < to; i++, j++) {
+			if (mapped.get(j) != bytes.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that a record, with the lengths it gives, lies in the area records are allocated
+	 * from
+	 */
+	private boolean isWithinBounds(long record) {
+		if (record < dataStart || record > mapped.capacity() - RECORD_HEADER_SIZE) {
+			return false;
+		}
+		int keyLength = mapped.getInt((int) record);
+		int valueLength = mapped.getInt((int) record + 4);
+		return keyLength >= 0 && valueLength >= UNCHANGED && record + RECORD_HEADER_SIZE +
+			keyLength + Math.max(valueLength, 0) <= mapped.capacity();
+	}
+
+	/**
+	 * Hashes a symbol as {@link DiskCache} does, keeping 0 for free slots
+	 */
+	private static long hash(ByteBuffer bytes, int from, int to) {
+		long hash = DiskCache.hash(bytes, from, to);
+		return hash == 0 ? 1 : hash;
+	}
+}
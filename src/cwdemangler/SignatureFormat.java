@@ -0,0 +1,114 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+/**
+ * The layout of a pretty printed signature, see
+ * {@link DemangledObject#getSignature(SignatureFormat)}.  The defaults give the layout of
+ * {@code getSignature(true)}: one parameter per line, aligned under the first one.
+ */
+public class SignatureFormat {
+
+	/** Indent value that aligns continuation lines with the first argument of the list */
+	public static final int ALIGN = -1;
+
+	private int lineWidth = 0;
+	private int indent = ALIGN;
+	private boolean wrapTemplates = false;
+
+	public SignatureFormat() {
+		// use default values
+	}
+
+	public SignatureFormat(SignatureFormat copy) {
+		this.lineWidth = copy.lineWidth;
+		this.indent = copy.indent;
+		this.wrapTemplates = copy.wrapTemplates;
+	}
+
+	/**
+	 * Returns the line width that argument lists are wrapped at
+	 *
+	 * @return the line width, or 0 if every argument starts a new line
+	 */
+	public int getLineWidth() {
+		return lineWidth;
+	}
+
+	/**
+	 * Sets the line width that argument lists are wrapped at.  An argument is moved to a new
+	 * line only if it would not fit on the current one.  A width of 0 starts a new line for
+	 * every argument after the first.
+	 *
+	 * @param lineWidth the line width in characters, or 0
+	 */
+	public void setLineWidth(int lineWidth) {
+		if (lineWidth < 0) {
+			throw new IllegalArgumentException("Negative line width " + lineWidth);
+		}
+		this.lineWidth = lineWidth;
+	}
+
+	/**
+	 * Returns the indentation of continuation lines
+	 *
+	 * @return the number of spaces, or {@link #ALIGN}
+	 */
+	public int getIndent() {
+		return indent;
+	}
+
+	/**
+	 * Sets the indentation of continuation lines, relative to the indentation of the line the
+	 * argument list starts on.  {@link #ALIGN} aligns them with the first argument instead.
+	 *
+	 * @param indent the number of spaces, or {@link #ALIGN}
+	 */
+	public void setIndent(int indent) {
+		if (indent < ALIGN) {
+			throw new IllegalArgumentException("Invalid indent " + indent);
+		}
+		this.indent = indent;
+	}
+
+	/**
+	 * Checks if template argument lists are wrapped like parameter lists
+	 *
+	 * @return true if template arguments are wrapped
+	 */
+	public boolean wrapTemplates() {
+		return wrapTemplates;
+	}
+
+	/**
+	 * Sets the option to wrap template argument lists, including those nested in parameter
+	 * types, the same way as parameter lists
+	 *
+	 * @param wrapTemplates true to wrap template arguments
+	 */
+	public void setWrapTemplates(boolean wrapTemplates) {
+		this.wrapTemplates = wrapTemplates;
+	}
+
+	@Override
+	public String toString() {
+		//@formatter:off
+		return "{\n" +
+			"\tlineWidth: " + lineWidth + ",\n" +
+			"\tindent: " + indent + ",\n" +
+			"\twrapTemplates: " + wrapTemplates + ",\n" +
+		"}";
+		//@formatter:on
+	}
+}
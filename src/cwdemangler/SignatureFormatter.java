@@ -0,0 +1,205 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lays out the argument lists of one signature being written into a buffer, following a
+ * {@link SignatureFormat}.  It keeps track of where the current line starts, so that columns
+ * are known without searching the buffer.
+ *
+ * <p>With a line width, each outermost list is first written flat, recording the width of every
+ * argument at every depth, and then taken back out of the buffer.  The list is then laid out
+ * from those widths: an argument that fits is written flat, and only one that does not is
+ * written on a new line, with its own template arguments laid out the same way.  The signature
+ * is therefore written twice at most, whatever the nesting.
+ */
+final class SignatureFormatter {
+
+	// Indentation is copied from here in chunks rather than built up for every line
+	private static final char[] SPACES = new char[64];
+	static {
+		Arrays.fill(SPACES, ' ');
+	}
+
+	private final SignatureFormat format;
+	private final StringBuilder buffer;
+	private int lineStart;
+	private int lineIndent;
+
+	// The flat width of every argument of the list being laid out, in the order they are
+	// written, and how many arguments are nested in each one's own argument lists
+	private int[] widths = new int[16];
+	private int[] nestedCounts = new int[16];
+	private int argumentCount;
+	private int nextArgument;
+	private boolean isMeasuring;
+	private int depth;
+
+	/**
+	 * @param format the layout to follow
+	 * @param buffer the buffer the signature is written to
+	 * @param lineStart where the line holding the signature starts in the buffer
+	 */
+	SignatureFormatter(SignatureFormat format, StringBuilder buffer, int lineStart) {
+		this.format = format;
+		this.buffer = buffer;
+		this.lineStart = lineStart;
+	}
+
+	StringBuilder getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Appends a parenthesized parameter list, {@code (void)} if it is empty
+	 */
+	void appendParameters(List<DemangledDataType> parameters) {
+		appendList('(', parameters, "void", ')', true);
+	}
+
+	/**
+	 * Appends a template argument list, wrapped only if the format asks for it
+	 */
+	void appendTemplateArguments(List<DemangledDataType> arguments) {
+		appendList('<', arguments, "", '>', format.wrapTemplates());
+	}
+
+	private void appendList(char open, List<DemangledDataType> items, String empty, char close,
+			boolean wrap) {
+		if (depth == 0 && !isMeasuring && wrap && format.getLineWidth() > 0 &&
+			measure(open, items, empty, close, wrap)) {
+			return;
+		}
+		depth++;
+		try {
+			if (isMeasuring) {
+				measureList(open, items, empty, close);
+			}
+			else {
+				layOutList(open, items, empty, close, wrap);
+			}
+		}
+		finally {
+			depth--;
+		}
+	}
+
+	/**
+	 * Writes an outermost list flat, recording the width of every argument in it.  The list is
+	 * kept if it fits on the line, and otherwise taken back out of the buffer to be laid out.
+	 * @return true if the list fits and has been written
+	 */
+	private boolean measure(char open, List<DemangledDataType> items, String empty, char close,
+			boolean wrap) {
+		int start = buffer.length();
+		argumentCount = 0;
+		isMeasuring = true;
+		try {
+			appendList(open, items, empty, close, wrap);
+		}
+		finally {
+			isMeasuring = false;
+		}
+		if (buffer.length() - lineStart <= format.getLineWidth()) {
+			return true;
+		}
+		buffer.setLength(start);
+		nextArgument = 0;
+		return false;
+	}
+
+	private void measureList(char open, List<DemangledDataType> items, String empty,
+			char close) {
+		buffer.append(open);
+		if (items.isEmpty()) {
+			buffer.append(empty);
+		}
+		for (int i = 0; i < items.size(); i++) {
+			if (i > 0) {
+				buffer.append(',');
+			}
+			int argument = argumentCount++;
+			if (argument == widths.length) {
+				widths = Arrays.copyOf(widths, argument * 2);
+				nestedCounts = Arrays.copyOf(nestedCounts, argument * 2);
+			}
+			int itemStart = buffer.length();
+			appendItem(items.get(i));
+			widths[argument] = buffer.length() - itemStart;
+			nestedCounts[argument] = argumentCount - argument - 1;
+		}
+		buffer.append(close);
+	}
+
+	private void layOutList(char open, List<DemangledDataType> items, String empty, char close,
+			boolean wrap) {
+		buffer.append(open);
+		int indent = format.getIndent() == SignatureFormat.ALIGN ? buffer.length() - lineStart
+				: lineIndent + format.getIndent();
+
+		if (items.isEmpty()) {
+			buffer.append(empty);
+		}
+
+		int width = format.getLineWidth();
+		for (int i = 0; i < items.size(); i++) {
+			DemangledDataType item = items.get(i);
+			if (i > 0) {
+				buffer.append(',');
+				if (wrap && width == 0) {
+					newLine(indent);
+				}
+			}
+			int argument = nextArgument++;
+			if (!wrap || width == 0) {
+				appendItem(item);
+				continue;
+			}
+
+			// Write the argument flat if it fits, with room for the comma or bracket after it
+			if (buffer.length() + widths[argument] + 1 - lineStart <= width) {
+				item.appendSignature(buffer);
+				nextArgument += nestedCounts[argument];
+				continue;
+			}
+			if (buffer.length() - lineStart > indent) {
+				newLine(indent);
+			}
+			appendItem(item);
+		}
+
+		buffer.append(close);
+	}
+
+	private void appendItem(DemangledDataType item) {
+		if (format.wrapTemplates()) {
+			item.appendSignature(this);
+		}
+		else {
+			item.appendSignature(buffer);
+		}
+	}
+
+	private void newLine(int indent) {
+		buffer.append('\n');
+		lineStart = buffer.length();
+		lineIndent = indent;
+		for (int n = indent; n > 0; n -= SPACES.length) {
+			buffer.append(SPACES, 0, Math.min(n, SPACES.length));
+		}
+	}
+}
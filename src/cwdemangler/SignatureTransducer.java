@@ -0,0 +1,623 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+/**
+ * A demangler that writes the signature of a symbol straight into a buffer in one pass over the
+ * mangled input, without building a {@link DemangledObject}.  The text is the same as
+ * {@code CodeWarriorDemangler.demangleSymbol(symbol).getSignature()}, including the
+ * {@code FuncDef} numbering, which both engines restart for each symbol.
+ *
+ * <p>Each type is written as soon as its modifiers have been read.  The only text that is
+ * buffered is the return type, which is mangled after the parameters but printed before the
+ * name, and the class name of a constructor or destructor, which is printed twice.
+ *
+ * <p>Like {@link CodeWarriorDemangler}, an instance is not thread safe; use
+ * {@link #forCurrentThread()} or one instance per thread.
+ */
+public class SignatureTransducer {
+
+	private static final ThreadLocal<SignatureTransducer> LOCAL_TRANSDUCER =
+		ThreadLocal.withInitial(SignatureTransducer::new);
+
+	private final CodeWarriorDemangler classifier = new CodeWarriorDemangler();
+
+	private CharSequence input;
+	private int pos;
+	private int end;
+	private boolean containsInvalidSpecifier;
+	private int functionPointerCount;
+	private StringBuilder out;
+
+	// Where the name of the last type written starts and ends in the output, without its
+	// namespace and trailing template, and whether the type was a function pointer
+	private int typeNameStart;
+	private int typeNameEnd;
+	private boolean typeIsFunctionPointer;
+
+	// Where the last type written starts and ends without its modifiers, with its namespace and
+	// template
+	private int typeStart;
+	private int typeEnd;
+
+	/**
+	 * Returns the transducer owned by the calling thread
+	 * @return the transducer for this thread
+	 */
+	public static SignatureTransducer forCurrentThread() {
+		return LOCAL_TRANSDUCER.get();
+	}
+
+	/**
+	 * Demangles a symbol into its signature text
+	 * @param symbol the mangled symbol
+	 * @return the signature, or null if the symbol is not mangled or fails to demangle
+	 */
+	public static String demangleToSignature(CharSequence symbol) {
+		StringBuilder buffer = new StringBuilder(symbol.length() * 2);
+		return forCurrentThread().appendSignature(symbol, buffer) ? buffer.toString() : null;
+	}
+
+	/**
+	 * Appends the signature of a symbol to the given buffer.  Nothing is appended if the symbol
+	 * is not mangled or fails to demangle.
+	 * @param symbol the mangled symbol
+	 * @param buffer the buffer to append to
+	 * @return true if a signature was appended, false if the symbol is not mangled or fails to
+	 * demangle
+	 */
+	public boolean appendSignature(CharSequence symbol, StringBuilder buffer) {
+		int start = buffer.length();
+		boolean appended = false;
+		try {
+			appended = transduce(symbol, buffer);
+			return appended;
+		}
+		finally {
+			if (!appended) {
+				buffer.setLength(start);
+			}
+			// Do not keep the caller's buffers reachable from a pooled transducer.
+			this.input = null;
+			this.out = null;
+		}
+	}
+
+	private boolean transduce(CharSequence symbol, StringBuilder buffer) {
+		MangledKind kind = classifier.classify(symbol);
+		if (kind == MangledKind.PLAIN) {
+			return false;
+		}
+
+		int nameStart = classifier.getNameStart();
+		int nameEnd = classifier.getNameEnd();
+		this.out = buffer;
+		this.input = symbol;
+		this.pos = nameEnd + 2;
+		this.end = symbol.length();
+		this.containsInvalidSpecifier = false;
+		this.functionPointerCount = 0;
+
+		if (kind == MangledKind.DATA_MEMBER) {
+			writeClass();
+			if (!isEmpty()) {
+				return false;
+			}
+			out.append("::").append(symbol, nameStart, nameEnd);
+			return true;
+		}
+
+		if (nameStart > 0) {
+			out.append("[thunk]:");
+		}
+		int returnTypeStart = out.length();
+
+		String className = null;
+		if (hd() == 'F') {
+			out.append("__stdcall ");
+		}
+		else {
+			out.append("__thiscall ");
+			writeClass();
+			className = out.substring(typeNameStart, typeNameEnd);
+			if (!isConstFunc() && hd() != 'F') {
+				return false;
+			}
+			out.append("::");
+		}
+
+		// The template of the function name is parsed after the parameters, as in
+		// CodeWarriorDemangler, so that function pointers in both are numbered in the same order
+		CharSequence functionName = symbol;
+		int functionNameStart = nameStart;
+		int functionNameEnd = nameEnd;
+		String operatorName =
+			CodeWarriorDemangler.demangleSpecialOperator(symbol, nameStart, nameEnd);
+		if (operatorName != null) {
+			functionName = operatorName;
+		}
+		else if (CodeWarriorDemangler.regionEquals(symbol, nameStart, nameEnd, "__ct")) {
+			functionName = className;
+		}
+		else if (CodeWarriorDemangler.regionEquals(symbol, nameStart, nameEnd, "__dt")) {
+			functionName = className == null ? null : "~" + className;
+		}
+		if (functionName == null) {
+			// A constructor or destructor without a class
+			return false;
+		}
+		if (functionName != symbol) {
+			functionNameStart = 0;
+			functionNameEnd = functionName.length();
+		}
+		int lb = operatorName != null ? -1
+				: CodeWarriorDemangler.indexOf(functionName, '<', functionNameStart, functionNameEnd);
+		out.append(functionName, functionNameStart, lb < 0 ? functionNameEnd : lb);
+		int templateStart = out.length();
+
+		char tok = tk();
+		boolean isTrailingConst = tok == 'C';
+		if (isTrailingConst) {
+			tok = tk();
+		}
+		assert tok == 'F';
+
+		String returnType = null;
+		boolean returnsFunctionPointer = false;
+		int parameterCount = 0;
+		out.append('(');
+		while (!isEmpty()) {
+			if (hd() == '_') {
+				tk();
+				int returnStart = out.length();
+				writeType();
+				returnType = out.substring(returnStart);
+				returnsFunctionPointer = typeIsFunctionPointer;
+				out.setLength(returnStart);
+			}
+			else {
+				if (parameterCount++ > 0) {
+					out.append(',');
+				}
+				writeType();
+			}
+		}
+		if (parameterCount == 0) {
+			out.append("void");
+		}
+		out.append(')');
+
+		if (isTrailingConst) {
+			out.append(" const");
+		}
+
+		if (lb >= 0) {
+			int templateEnd = out.length();
+			writeTemplate(functionName, lb, functionNameEnd);
+			String template = out.substring(templateEnd);
+			out.setLength(templateEnd);
+			out.insert(templateStart, template);
+		}
+
+		if (containsInvalidSpecifier) {
+			return false;
+		}
+
+		if (returnsFunctionPointer) {
+			// getSignature() cannot render these either: the pointer has no calling convention
+			return false;
+		}
+
+		if (returnType != null) {
+			out.insert(returnTypeStart, returnType).insert(returnTypeStart + returnType.length(), ' ');
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the class of a method or data member at the cursor.  It can be any type, but like
+	 * {@link CodeWarriorDemangler}, only its name with its namespace and template is written,
+	 * without modifiers such as pointers or {@code unsigned}.
+	 */
+	private void writeClass() {
+		int start = out.length();
+		writeType();
+		if (typeStart == start && typeEnd == out.length()) {
+			return;
+		}
+		out.setLength(typeEnd);
+		out.delete(start, typeStart);
+		typeNameStart -= typeStart - start;
+		typeNameEnd -= typeStart - start;
+	}
+
+	/**
+	 * Writes one type at the cursor, as {@link DemangledDataType#appendSignature(StringBuilder)}
+	 * would render the result of {@link CodeWarriorDemangler#nextType()}.
+	 * @return true if the type counts as primitive for the template name quirk of
+	 * {@link #writeName(int)}
+	 */
+	private boolean writeType() {
+		int pointerLevels = 0;
+		boolean isConst = false;
+		boolean isReference = false;
+		boolean isSigned = false;
+		boolean isUnsigned = false;
+		boolean isArray = false;
+		int arrayDimensions = 0;
+		CharSequence scopeText = null;
+		int scopeStart = 0;
+		int scopeEnd = 0;
+
+		// Modifiers wrap the type that follows them, so the outermost one is read first.  Where
+		// nextType() lets the outermost array size or member scope win, so does this.
+		char tok = tk();
+		while (true) {
+			if (tok == 'P') {
+				pointerLevels++;
+			}
+			else if (tok == 'C') {
+				isConst = true;
+			}
+			else if (tok == 'R') {
+				isReference = true;
+			}
+			else if (tok == 'U') {
+				isUnsigned = true;
+			}
+			else if (tok == 'S') {
+				isSigned = true;
+			}
+			else if (tok == 'A') {
+				int arraySize = nextInteger();
+				char typeSeparator = tk();
+				assert typeSeparator == '_';
+				if (!isArray) {
+					isArray = true;
+					arrayDimensions = arraySize;
+				}
+			}
+			else if (tok == 'M') {
+				int length = nextInteger();
+				int start = skip(length);
+				if (scopeText == null) {
+					scopeText = input;
+					scopeStart = start;
+					scopeEnd = pos;
+				}
+			}
+			else {
+				break;
+			}
+			tok = tk();
+		}
+
+		if (isSigned) {
+			out.append("signed ");
+		}
+		if (isUnsigned) {
+			out.append("unsigned ");
+		}
+		int baseStart = out.length();
+
+		boolean isFunctionPointer = false;
+		switch (tok) {
+			case '0': case '1': case '2': case '3': case '4':
+			case '5': case '6': case '7': case '8': case '9':
+				writeNamedType(tok);
+				break;
+			case 'Q':
+				writeQualifiedType();
+				break;
+			case 'F':
+				writeFunctionPointer();
+				pointerLevels++;
+				isFunctionPointer = true;
+				break;
+			case 'i':
+				writePrimitive(DemangledDataType.INT);
+				break;
+			case 'l':
+				writePrimitive(DemangledDataType.LONG);
+				break;
+			case 'x':
+				writePrimitive(DemangledDataType.LONG_LONG);
+				break;
+			case 'b':
+				writePrimitive(DemangledDataType.BOOL);
+				break;
+			case 'c':
+				writePrimitive(DemangledDataType.CHAR);
+				break;
+			case 's':
+				writePrimitive(DemangledDataType.SHORT);
+				break;
+			case 'f':
+				writePrimitive(DemangledDataType.FLOAT);
+				break;
+			case 'd':
+				writePrimitive(DemangledDataType.DOUBLE);
+				break;
+			case 'w':
+				writePrimitive(DemangledDataType.WCHAR_T);
+				break;
+			case 'v':
+				writePrimitive(DemangledDataType.VOID);
+				break;
+			case 'e':
+				writePrimitive(DemangledDataType.VARARGS);
+				break;
+			default:
+				if (Character.isDigit(tok)) {
+					writeNamedType(tok);
+					break;
+				}
+				this.containsInvalidSpecifier = this.containsInvalidSpecifier || tok != '_';
+				writePrimitive(DemangledDataType.UNDEFINED);
+		}
+		int nameStart = typeNameStart;
+		int nameEnd = typeNameEnd;
+		int baseEnd = out.length();
+
+		if (isConst) {
+			out.append(" const");
+		}
+		if (scopeEnd > scopeStart) {
+			out.append(' ').append(scopeText, scopeStart, scopeEnd).append("::");
+		}
+		if (pointerLevels >= 1) {
+			out.append(" *");
+		}
+		if (isReference) {
+			out.append(" &");
+		}
+		for (int i = 1; i < pointerLevels; i++) {
+			out.append(" *");
+		}
+		if (arrayDimensions > 0 && !hasArraySubscript(nameStart, nameEnd)) {
+			for (int i = 0; i < arrayDimensions; i++) {
+				out.append("[]");
+			}
+		}
+
+		this.typeNameStart = nameStart;
+		this.typeNameEnd = nameEnd;
+		this.typeIsFunctionPointer = isFunctionPointer;
+		this.typeStart = baseStart;
+		this.typeEnd = baseEnd;
+		return !isFunctionPointer && arrayDimensions <= 0 && pointerLevels == 0 && !isSigned &&
+			isPrimitiveName(nameStart, nameEnd);
+	}
+
+	private void writePrimitive(String name) {
+		typeNameStart = out.length();
+		out.append(name);
+		typeNameEnd = out.length();
+	}
+
+	private void writeNamedType(char tok) {
+		int value = nextInteger(tok);
+		if (hd() == '>' || hd() == ',') {
+			// Literal integer (template)
+			typeNameStart = out.length();
+			out.append(value);
+			typeNameEnd = out.length();
+			return;
+		}
+		writeName(value);
+	}
+
+	private void writeQualifiedType() {
+		int compCount = tk() - '0';
+		if (compCount < 2) {
+			throw new IllegalArgumentException("Qualified name with " + compCount + " components");
+		}
+
+		// Like nextType(), read every namespace before rejecting a blank one
+		boolean isBlank = false;
+		for (int i = 0; i < compCount - 1; i++) {
+			int length = nextInteger();
+			int start = skip(length);
+			isBlank |= length == 0;
+			out.append(input, start, pos).append("::");
+		}
+		if (isBlank) {
+			throw new IllegalArgumentException("Name cannot be blank");
+		}
+		writeName(nextInteger());
+	}
+
+	/**
+	 * Writes a name of the given length at the cursor, with its template argument list.  As in
+	 * {@link CodeWarriorDemangler}, a template with a primitive argument is also made part of the
+	 * name, so it appears twice.
+	 */
+	private void writeName(int length) {
+		int nameStart = this.pos;
+		int nameEnd = nameStart + length;
+		int lb = length < 0 || nameEnd > this.end ? -1
+				: CodeWarriorDemangler.indexOf(input, '<', nameStart, nameEnd);
+		if (lb < 0) {
+			int start = skip(length);
+			if (length == 0) {
+				throw new IllegalArgumentException("Name cannot be blank");
+			}
+			typeNameStart = out.length();
+			out.append(input, start, pos);
+			typeNameEnd = out.length();
+			return;
+		}
+
+		int outStart = out.length();
+		out.append(input, nameStart, lb);
+		int templateStart = out.length();
+		boolean hasPrimitive = writeTemplate(input, lb, nameEnd);
+		if (templateStart == outStart) {
+			throw new IllegalArgumentException("Name cannot be blank");
+		}
+		this.pos = nameEnd;
+
+		typeNameStart = outStart;
+		typeNameEnd = templateStart;
+		if (hasPrimitive) {
+			int templateEnd = out.length();
+			for (int i = templateStart; i < templateEnd; i++) {
+				out.append(out.charAt(i));
+			}
+			typeNameEnd = templateEnd;
+		}
+	}
+
+	/**
+	 * Writes the template argument list starting at {@code lb} of the given text, up to the
+	 * first '>' outside its arguments, which must come before {@code end}, then restores the
+	 * cursor to where it was.
+	 * @return true if any of the arguments counts as primitive
+	 */
+	private boolean writeTemplate(CharSequence text, int lb, int end) {
+		CharSequence savedInput = this.input;
+		int savedPos = this.pos;
+		int savedEnd = this.end;
+		boolean savedInvalid = this.containsInvalidSpecifier;
+		try {
+			this.input = text;
+			this.pos = lb;
+			this.end = end;
+			assert hd() == '<';
+
+			boolean hasPrimitive = false;
+			boolean first = true;
+			out.append('<');
+			while (true) {
+				char tok = tk();
+				if (tok == '>') {
+					break;
+				}
+				assert tok == '<' || tok == ',';
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				hasPrimitive |= writeType();
+			}
+			out.append('>');
+			return hasPrimitive;
+		}
+		finally {
+			this.input = savedInput;
+			this.pos = savedPos;
+			this.end = savedEnd;
+			this.containsInvalidSpecifier = savedInvalid;
+		}
+	}
+
+	/**
+	 * Writes the name of a function pointer type.  Its parameters and return type are not part of
+	 * the signature of a parameter, but they are still parsed to number nested function pointers
+	 * and to catch invalid type codes.
+	 */
+	private void writeFunctionPointer() {
+		String name = DemangledFunctionPointer.DEFAULT_NAME_PREFIX + functionPointerCount++;
+		int start = out.length();
+		while (!isEmpty()) {
+			if (hd() == '_') {
+				tk();
+				writeType();
+				break;
+			}
+			writeType();
+		}
+		out.setLength(start);
+
+		typeNameStart = start;
+		out.append(name);
+		typeNameEnd = out.length();
+	}
+
+	private boolean isPrimitiveName(int start, int end) {
+		for (String primitive : DemangledDataType.PRIMITIVES) {
+			if (CodeWarriorDemangler.regionEquals(out, start, end, primitive)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Matches {@code \[\d*\]} in the given range of the output, like the check in
+	 * {@link DemangledDataType#appendSignature(StringBuilder)}.
+	 */
+	private boolean hasArraySubscript(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (out.charAt(i) != '[') {
+				continue;
+			}
+			int j = i + 1;
+			while (j < end && out.charAt(j) >= '0' && out.charAt(j) <= '9') {
+				j++;
+			}
+			if (j < end && out.charAt(j) == ']') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isEmpty() {
+		return this.pos >= this.end;
+	}
+
+	private char hd() {
+		return isEmpty() ? 0 : this.input.charAt(this.pos);
+	}
+
+	private char tk() {
+		if (isEmpty()) {
+			throw new StringIndexOutOfBoundsException(
+				"begin 1, end " + (this.end - this.pos) + ", length " + (this.end - this.pos));
+		}
+		return this.input.charAt(this.pos++);
+	}
+
+	private int skip(int n) {
+		if (n < 0 || n > this.end - this.pos) {
+			throw new StringIndexOutOfBoundsException(
+				"begin " + this.pos + ", end " + (this.pos + n) + ", length " + this.end);
+		}
+		int start = this.pos;
+		this.pos += n;
+		return start;
+	}
+
+	private boolean isConstFunc() {
+		if (this.end - this.pos < 2) {
+			return false;
+		}
+		char c = this.input.charAt(this.pos);
+		return (c == 'C' || c == 'c') && this.input.charAt(this.pos + 1) == 'F';
+	}
+
+	private int nextInteger(char initial) {
+		int value = initial - '0';
+		while (Character.isDigit(hd())) {
+			value = value * 10 + (tk() - '0');
+		}
+		return value;
+	}
+
+	private int nextInteger() {
+		assert Character.isDigit(hd());
+		return nextInteger(tk());
+	}
+}
@@ -0,0 +1,726 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Demangles a stream of symbols, one per line, the way {@code c++filt} does, the symbols
+ * found anywhere in a stream of text, or the symbol column of a linker map.  Input is read as
+ * bytes and looked at in place; anything that is not a mangled symbol is copied to the output
+ * byte for byte, whatever its encoding.
+ * Output is collected in a fixed block that is written out when it fills up, so memory use does
+ * not grow with the size of the input, only with the length of the longest line or symbol.
+ *
+ * <p>An instance keeps its own parser state and is meant to be used by one thread, which may
+ * hand the demangling itself to a pool, see {@link #StreamDemangler(OutputStream, ForkJoinPool)}.
+ */
+public class StreamDemangler implements Flushable {
+
+	static final int BLOCK_SIZE = 1 << 16;
+
+	// Input is read in larger blocks when it is split between workers
+	private static final int PARALLEL_BLOCK_SIZE = 1 << 22;
+	private static final int MIN_PART_SIZE = 1 << 14;
+	private static final long MAP_WINDOW_SIZE = 1L << 30;
+
+	private OutputStream out;
+	private final byte[] block = new byte[BLOCK_SIZE];
+	private int blockLength;
+
+	private final SignatureTransducer transducer = new SignatureTransducer();
+	private final Latin1CharSequence line = new Latin1CharSequence();
+	private final StringBuilder signature = new StringBuilder();
+
+	private final ForkJoinPool pool;
+	private final List<Part> parts = new ArrayList<>();
+
+	private DemangleCache cache;
+	private CacheFile cacheFile;
+
+	/**
+	 * What the input holds, which decides where it may be cut and what is demangled in it
+	 */
+	private enum Mode {
+		/** One symbol per line */
+		LINES,
+		/** Free text with symbols anywhere in it */
+		TEXT,
+		/** A linker map, with symbols in some of its columns */
+		MAP
+	}
+
+	/**
+	 * @param out the stream the demangled lines are written to; it is not closed
+	 */
+	public StreamDemangler(OutputStream out) {
+		this(out, null);
+	}
+
+	/**
+	 * Creates a demangler that splits large input between the workers of a pool.  Each block
+	 * of input is cut into parts at line breaks, or between symbols when filtering; every part
+	 * is demangled into its own buffer, and the buffers are written out in input order.  The
+	 * calling thread still reads and writes the streams.
+	 * @param out the stream the demangled lines are written to; it is not closed
+	 * @param pool the pool to demangle on, or null to demangle on the calling thread
+	 */
+	public StreamDemangler(OutputStream out, ForkJoinPool pool) {
+		this.out = out;
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets a cache to look symbols up in before demangling them, and to add them to after
+	 * @param cache the cache, which may be shared with other threads, or null for none
+	 */
+	public void setCache(DemangleCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets a cache file to look symbols up in after the cache in memory, if any, and to add
+	 * them to after demangling them.  Without a cache in memory, signatures found in the file
+	 * are copied to the output straight from its mapping.
+	 * @param diskCache the cache file, which may be shared with other threads, or null for none
+	 */
+	public void setDiskCache(DiskCache diskCache) {
+		this.cacheFile = diskCache;
+	}
+
+	/**
+	 * Sets a cache file shared with other processes to look symbols up in, in place of a
+	 * {@link #setDiskCache(DiskCache) cache file} and in the same way
+	 * @param sharedCache the shared cache, or null for none
+	 */
+	public void setSharedCache(SharedCache sharedCache) {
+		this.cacheFile = sharedCache;
+	}
+
+	void setCacheFile(CacheFile cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Writes out what is buffered for the current output, then sends the output to another
+	 * stream, so that one demangler can serve many buffers in turn
+	 * @param newOut the stream the demangled lines are written to from now on
+	 * @throws IOException if writing fails
+	 */
+	void setOutput(OutputStream newOut) throws IOException {
+		writeBlock();
+		this.out = newOut;
+	}
+
+	/**
+	 * Demangles every line of the given stream until it ends, then flushes the output
+	 * @param in the stream to read symbols from; it is not closed
+	 * @throws IOException if reading or writing fails
+	 */
+	public void demangleLines(InputStream in) throws IOException {
+		process(in, Mode.LINES);
+	}
+
+	/**
+	 * Copies the given stream to the output with every mangled symbol in it demangled in place,
+	 * until the stream ends, then flushes the output.  See
+	 * {@link #filterText(ByteBuffer, int, int)}.
+	 * @param in the stream to read text from; it is not closed
+	 * @throws IOException if reading or writing fails
+	 */
+	public void filterText(InputStream in) throws IOException {
+		process(in, Mode.TEXT);
+	}
+
+	/**
+	 * Demangles every line of a file, then flushes the output.  The file is memory mapped and
+	 * each line is demangled straight from the mapped bytes.
+	 * @param file the file to read symbols from
+	 * @throws IOException if reading or writing fails
+	 */
+	public void demangleLines(Path file) throws IOException {
+		process(file, Mode.LINES);
+	}
+
+	/**
+	 * Copies a file to the output with every mangled symbol in it demangled in place, then
+	 * flushes the output.  The file is memory mapped and read in place.
+	 * @param file the file to read text from
+	 * @throws IOException if reading or writing fails
+	 */
+	public void filterText(Path file) throws IOException {
+		process(file, Mode.TEXT);
+	}
+
+	/**
+	 * Copies a CodeWarrior linker map to the output with the symbol column demangled, until the
+	 * stream ends, then flushes the output.  See {@link #demangleMapLine(ByteBuffer, int, int)}.
+	 * @param in the stream to read the map from; it is not closed
+	 * @throws IOException if reading or writing fails
+	 */
+	public void demangleMap(InputStream in) throws IOException {
+		process(in, Mode.MAP);
+	}
+
+	/**
+	 * Copies a CodeWarrior linker map file to the output with the symbol column demangled, then
+	 * flushes the output.  The file is memory mapped and read in place.
+	 * @param file the map file
+	 * @throws IOException if reading or writing fails
+	 */
+	public void demangleMap(Path file) throws IOException {
+		process(file, Mode.MAP);
+	}
+
+	/**
+	 * Lists the symbols of an ELF object file or executable, then flushes the output.  The file
+	 * is memory mapped and read in place.  See {@link #demangleSymbols(ElfFile)}.
+	 * @param file the ELF file
+	 * @throws ElfException if the file is not a 32-bit big-endian ELF file
+	 * @throws IOException if reading or writing fails
+	 */
+	public void demangleSymbols(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			demangleSymbols(new ElfFile(channel.map(MapMode.READ_ONLY, 0, channel.size())));
+		}
+		flush();
+	}
+
+	/**
+	 * Maps the file one window at a time, since a single mapping cannot exceed 2 GB.  Each
+	 * window but the last is cut after its last line break, or the last byte that cannot be part
+	 * of a symbol, and the next window starts there.
+	 */
+	private void process(Path file, Mode mode) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				long windowSize = Math.min(MAP_WINDOW_SIZE, size - position);
+				MappedByteBuffer window = channel.map(MapMode.READ_ONLY, position, windowSize);
+				int end = (int) windowSize;
+				if (position + windowSize < size) {
+					// A line longer than the window is split rather than failing the whole file
+					end = lastBoundary(window, 0, end, mode) + 1;
+					if (end == 0) {
+						end = (int) windowSize;
+					}
+				}
+
+				// Hand the window to the pool in blocks, so that the output of the workers stays
+				// small
+				int blockSize = pool == null ? end : PARALLEL_BLOCK_SIZE;
+				for (int start = 0; start < end;) {
+					int blockEnd = end;
+					if (end - start > blockSize) {
+						blockEnd = lastBoundary(window, start, start + blockSize, mode) + 1;
+						if (blockEnd <= start) {
+							blockEnd = start + blockSize;
+						}
+					}
+					process(window, start, blockEnd, mode);
+					start = blockEnd;
+				}
+				position += end;
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Reads the stream in blocks.  After each read only the bytes up to the last line break, or
+	 * the last byte that cannot be part of a symbol, are handed on, so no symbol is split across
+	 * two reads; the rest is moved to the front of the buffer for the next read.  The output is
+	 * flushed whenever the stream has nothing more to read without blocking, so that a client
+	 * writing to a pipe or socket gets its answers before it sends more.
+	 */
+	private void process(InputStream in, Mode mode) throws IOException {
+		byte[] buffer = new byte[pool == null ? BLOCK_SIZE : PARALLEL_BLOCK_SIZE];
+		ByteBuffer bytes = ByteBuffer.wrap(buffer);
+		int length = 0;
+
+		int n;
+		while ((n = in.read(buffer, length, buffer.length - length)) >= 0) {
+			int boundary = lastBoundary(bytes, length, length + n, mode);
+			length += n;
+
+			if (boundary >= 0) {
+				int consumed = boundary + 1;
+				process(bytes, 0, consumed, mode);
+				System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+				length -= consumed;
+				if (in.available() == 0) {
+					flush();
+				}
+			}
+			else if (length == buffer.length) {
+				// One line or token fills the whole buffer
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				bytes = ByteBuffer.wrap(buffer);
+			}
+		}
+
+		if (length > 0) {
+			process(bytes, 0, length, mode);
+		}
+		flush();
+	}
+
+	/**
+	 * Demangles the lines, or filters the text, in {@code [from, to)} of the buffer, on the pool
+	 * if there is enough of it
+	 */
+	void process(ByteBuffer bytes, int from, int to, Mode mode) throws IOException {
+		int partCount = pool == null ? 1
+				: Math.min(pool.getParallelism() * 4, (to - from) / MIN_PART_SIZE);
+		if (partCount <= 1) {
+			processPart(bytes, from, to, mode);
+			return;
+		}
+
+		while (parts.size() < partCount) {
+			parts.add(new Part());
+		}
+		int start = from;
+		for (int i = 0; i < partCount; i++) {
+			int end = i == partCount - 1 ? to : from + (int) ((long) (to - from) * (i + 1) / partCount);
+			while (end < to && !isBoundary(bytes.get(end - 1), mode)) {
+				end++;
+			}
+			parts.get(i).reset(bytes, start, Math.max(start, end), mode, cache, cacheFile);
+			start = Math.max(start, end);
+		}
+		for (int i = 0; i < partCount; i++) {
+			pool.execute(parts.get(i));
+		}
+
+		writeBlock();
+		for (int i = 0; i < partCount; i++) {
+			Part part = parts.get(i);
+			part.join();
+			part.output.writeTo(out);
+			part.output.reset();
+		}
+	}
+
+	private void processPart(ByteBuffer bytes, int from, int to, Mode mode) throws IOException {
+		if (mode == Mode.TEXT) {
+			filterText(bytes, from, to - from);
+			return;
+		}
+
+		int lineStart = from;
+		for (int i = from; i < to; i++) {
+			if (bytes.get(i) == '\n') {
+				demangleLine(bytes, lineStart, i + 1 - lineStart, mode);
+				lineStart = i + 1;
+			}
+		}
+		if (lineStart < to) {
+			demangleLine(bytes, lineStart, to - lineStart, mode);
+		}
+	}
+
+	private void demangleLine(ByteBuffer bytes, int offset, int length, Mode mode)
+			throws IOException {
+		if (mode == Mode.MAP) {
+			demangleMapLine(bytes, offset, length);
+		}
+		else {
+			demangleLine(bytes, offset, length);
+		}
+	}
+
+	/**
+	 * Returns the text output for a symbol: its signature, or the symbol itself if it is not
+	 * mangled or fails to demangle.  This is the value the caches hold for it.
+	 * @param mangled the symbol
+	 * @return the line to output for the symbol
+	 */
+	static String toOutput(String mangled) {
+		StringBuilder signature = new StringBuilder();
+		try {
+			if (SignatureTransducer.forCurrentThread().appendSignature(mangled, signature)) {
+				return signature.toString();
+			}
+		}
+		catch (RuntimeException e) {
+			// output as is, like any symbol that cannot be demangled
+		}
+		return mangled;
+	}
+
+	private static int lastBoundary(ByteBuffer bytes, int from, int to, Mode mode) {
+		for (int i = to - 1; i >= from; i--) {
+			if (isBoundary(bytes.get(i), mode)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isBoundary(byte b, Mode mode) {
+		return mode == Mode.TEXT ? !isSymbolChar(b) : b == '\n';
+	}
+
+	/**
+	 * One part of a block of input, demangled by a worker of the pool into its own buffer
+	 */
+	private static final class Part extends RecursiveAction {
+		private static final long serialVersionUID = 1L; // default
+
+		final ByteArrayOutputStream output = new ByteArrayOutputStream(BLOCK_SIZE);
+		final StreamDemangler demangler = new StreamDemangler(output);
+		ByteBuffer bytes;
+		int from;
+		int to;
+		Mode mode;
+
+		void reset(ByteBuffer newBytes, int newFrom, int newTo, Mode newMode,
+				DemangleCache cache, CacheFile cacheFile) {
+			reinitialize();
+			demangler.setCache(cache);
+			demangler.setCacheFile(cacheFile);
+			this.bytes = newBytes;
+			this.from = newFrom;
+			this.to = newTo;
+			this.mode = newMode;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				demangler.processPart(bytes, from, to, mode);
+				demangler.writeBlock();
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Demangles every line held in a buffer, see {@link #demangleLine(ByteBuffer, int, int)}.
+	 * The last line need not end with a terminator.
+	 * @param bytes the buffer holding the lines; its position and limit are not used
+	 * @param offset the absolute index of the first byte of the first line
+	 * @param length the length of the lines in bytes
+	 * @throws IOException if writing a full block fails
+	 */
+	public void demangleLines(ByteBuffer bytes, int offset, int length) throws IOException {
+		processPart(bytes, offset, offset + length, Mode.LINES);
+	}
+
+	/**
+	 * Demangles one line held in a buffer.  The line may end with its line terminator, which is
+	 * copied to the output as it is.  A line that is not a mangled symbol, or fails to demangle,
+	 * is copied unchanged.
+	 * @param bytes the buffer holding the line; its position and limit are not used
+	 * @param offset the absolute index of the first byte of the line
+	 * @param length the length of the line in bytes, including any terminator
+	 * @throws IOException if writing a full block fails
+	 */
+	public void demangleLine(ByteBuffer bytes, int offset, int length) throws IOException {
+		int end = offset + length;
+		int symbolEnd = end;
+		if (symbolEnd > offset && bytes.get(symbolEnd - 1) == '\n') {
+			symbolEnd--;
+		}
+		if (symbolEnd > offset && bytes.get(symbolEnd - 1) == '\r') {
+			symbolEnd--;
+		}
+
+		writeSymbol(bytes, offset, symbolEnd);
+		write(bytes, symbolEnd, end);
+	}
+
+	/**
+	 * Demangles the symbol in one line of a CodeWarrior linker map, held in a buffer, see
+	 * {@link LinkerMap}.  Only the symbol is replaced; the other columns, and lines that do not
+	 * name a symbol or whose symbol fails to demangle, are copied unchanged.
+	 * @param bytes the buffer holding the line; its position and limit are not used
+	 * @param offset the absolute index of the first byte of the line
+	 * @param length the length of the line in bytes, including any terminator
+	 * @throws IOException if writing a full block fails
+	 */
+	public void demangleMapLine(ByteBuffer bytes, int offset, int length) throws IOException {
+		int end = offset + length;
+		int lineEnd = end;
+		if (lineEnd > offset && bytes.get(lineEnd - 1) == '\n') {
+			lineEnd--;
+		}
+		if (lineEnd > offset && bytes.get(lineEnd - 1) == '\r') {
+			lineEnd--;
+		}
+
+		int symbolStart = LinkerMap.findSymbol(bytes, offset, lineEnd);
+		if (symbolStart < 0) {
+			write(bytes, offset, end);
+			return;
+		}
+		int symbolEnd = LinkerMap.symbolEnd(bytes, symbolStart, lineEnd);
+
+		write(bytes, offset, symbolStart);
+		writeSymbol(bytes, symbolStart, symbolEnd);
+		write(bytes, symbolEnd, end);
+	}
+
+	/**
+	 * Copies text to the output with every mangled symbol in it demangled in place.  A symbol is
+	 * a run of letters, digits, {@code _}, {@code @} and {@code $}, plus any template argument
+	 * list in angle brackets, that contains {@code __} followed by a class name, {@code F} or
+	 * {@code Q}.  Everything else, including symbols that fail to demangle, is copied unchanged.
+	 * @param bytes the buffer holding the text; its position and limit are not used
+	 * @param offset the absolute index of the first byte of the text
+	 * @param length the length of the text in bytes
+	 * @throws IOException if writing a full block fails
+	 */
+	public void filterText(ByteBuffer bytes, int offset, int length) throws IOException {
+		int end = offset + length;
+		int copyStart = offset;
+		int i = offset;
+		while (i < end) {
+			if (!isIdentifierChar(bytes.get(i))) {
+				i++;
+				continue;
+			}
+
+			int tokenStart = i;
+			int depth = 0;
+			boolean isCandidate = false;
+			for (; i < end; i++) {
+				byte b = bytes.get(i);
+				if (b == '<') {
+					depth++;
+				}
+				else if (depth > 0 && (b == ',' || b == '-')) {
+					continue;
+				}
+				else if (depth > 0 && b == '>') {
+					depth--;
+				}
+				else if (!isIdentifierChar(b)) {
+					break;
+				}
+				else if (b == '_' && !isCandidate && i + 2 < end && bytes.get(i + 1) == '_') {
+					byte next = bytes.get(i + 2);
+					isCandidate = next >= '0' && next <= '9' || next == 'F' || next == 'Q';
+				}
+			}
+
+			if (isCandidate) {
+				write(bytes, copyStart, tokenStart);
+				writeSymbol(bytes, tokenStart, i);
+				copyStart = i;
+			}
+		}
+		write(bytes, copyStart, end);
+	}
+
+	/**
+	 * Lists the symbols of an ELF file, one per line: value and size as eight hex digits, the
+	 * name of the section the symbol is defined in, or {@code *UND*}, {@code *ABS*} or
+	 * {@code *COM*}, and the demangled name.  Names are demangled straight from the string
+	 * table; section and file symbols, and symbols without a name, are skipped without being
+	 * looked at.
+	 * @param elf the file to list the symbols of
+	 * @throws IOException if writing a full block fails
+	 */
+	public void demangleSymbols(ElfFile elf) throws IOException {
+		demangleSymbols(elf, 1, elf.getSymbolCount());
+	}
+
+	/**
+	 * Lists a range of the symbols of an ELF file, see {@link #demangleSymbols(ElfFile)}
+	 * @param elf the file to list the symbols of
+	 * @param from the index of the first symbol to list
+	 * @param to the index after the last symbol to list
+	 * @throws IOException if writing a full block fails
+	 */
+	public void demangleSymbols(ElfFile elf, int from, int to) throws IOException {
+		ByteBuffer bytes = elf.getBytes();
+		for (int i = Math.max(from, 1); i < to; i++) {
+			int type = elf.getSymbolType(i);
+			int nameStart = elf.getSymbolNameStart(i);
+			if (type == ElfFile.STT_SECTION || type == ElfFile.STT_FILE || nameStart < 0) {
+				continue;
+			}
+			int nameEnd = elf.getSymbolNameEnd(i);
+			if (nameEnd == nameStart) {
+				continue;
+			}
+
+			writeHex(elf.getSymbolValue(i));
+			write(' ');
+			writeHex(elf.getSymbolSize(i));
+			write(' ');
+			int section = elf.getSymbolSection(i);
+			if (section == ElfFile.SHN_ABS) {
+				write("*ABS*");
+			}
+			else if (section == ElfFile.SHN_COMMON) {
+				write("*COM*");
+			}
+			else if (section == ElfFile.SHN_UNDEF || section >= elf.getSectionCount() ||
+				elf.getSectionNameStart(section) < 0) {
+				write("*UND*");
+			}
+			else {
+				write(bytes, elf.getSectionNameStart(section), elf.getSectionNameEnd(section));
+			}
+			write(' ');
+			writeSymbol(bytes, nameStart, nameEnd);
+			write('\n');
+		}
+	}
+
+	/**
+	 * Writes the symbol in {@code [from, to)} of the buffer demangled, or unchanged if it is not
+	 * a mangled symbol or fails to demangle
+	 */
+	private void writeSymbol(ByteBuffer bytes, int from, int to) throws IOException {
+		if (cache == null && cacheFile == null) {
+			if (demangle(line.reset(bytes, from, to - from))) {
+				write(signature);
+			}
+			else {
+				write(bytes, from, to);
+			}
+			return;
+		}
+
+		String symbol = null;
+		String value = null;
+		if (cache != null) {
+			symbol = line.reset(bytes, from, to - from).toString();
+			value = cache.get(symbol);
+		}
+		if (value == null && cacheFile != null) {
+			int record = cacheFile.find(bytes, from, to);
+			if (record >= 0 && cache == null) {
+				// Copied straight from the mapped file, without decoding it
+				write(cacheFile.getMapped(), cacheFile.getValueStart(record),
+					cacheFile.getValueEnd(record));
+				return;
+			}
+			if (symbol == null) {
+				symbol = line.reset(bytes, from, to - from).toString();
+			}
+			value = record >= 0 ? cacheFile.getValue(record, symbol) : cacheFile.getAdded(symbol);
+			if (value == null) {
+				value = demangle(symbol) ? signature.toString() : symbol;
+				cacheFile.put(symbol, value);
+			}
+			if (cache != null) {
+				cache.put(symbol, value);
+			}
+		}
+		else if (value == null) {
+			value = demangle(symbol) ? signature.toString() : symbol;
+			cache.put(symbol, value);
+		}
+		write(value);
+	}
+
+	/**
+	 * Demangles a symbol into {@link #signature}
+	 * @return false if it is not a mangled symbol or fails to demangle
+	 */
+	private boolean demangle(CharSequence symbol) {
+		signature.setLength(0);
+		try {
+			return transducer.appendSignature(symbol, signature);
+		}
+		catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	private static boolean isIdentifierChar(byte b) {
+		return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '_' ||
+			b == '@' || b == '$';
+	}
+
+	private static boolean isSymbolChar(byte b) {
+		return isIdentifierChar(b) || b == '<' || b == '>' || b == ',' || b == '-';
+	}
+
+	/**
+	 * Writes characters that all come from Latin-1 input, one byte each
+	 */
+	private void write(CharSequence text) throws IOException {
+		for (int i = 0, n = text.length(); i < n; i++) {
+			if (blockLength == block.length) {
+				writeBlock();
+			}
+			block[blockLength++] = (byte) text.charAt(i);
+		}
+	}
+
+	private void write(char c) throws IOException {
+		if (blockLength == block.length) {
+			writeBlock();
+		}
+		block[blockLength++] = (byte) c;
+	}
+
+	private void writeHex(int value) throws IOException {
+		for (int shift = 28; shift >= 0; shift -= 4) {
+			write(Character.forDigit((value >>> shift) & 0xf, 16));
+		}
+	}
+
+	private void write(ByteBuffer bytes, int from, int to) throws IOException {
+		while (from < to) {
+			if (blockLength == block.length) {
+				writeBlock();
+			}
+			int n = Math.min(to - from, block.length - blockLength);
+			bytes.get(from, block, blockLength, n);
+			blockLength += n;
+			from += n;
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		out.write(block, 0, blockLength);
+		blockLength = 0;
+	}
+
+	/**
+	 * Writes out any buffered output and flushes the underlying stream
+	 * @throws IOException if writing fails
+	 */
+	@Override
+	public void flush() throws IOException {
+		writeBlock();
+		out.flush();
+	}
+}
@@ -0,0 +1,316 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Lists the demangled symbols of every ELF object in a directory tree, including the members
+ * of {@code ar} archives, the way {@code nm} does for several files: each object starts with a
+ * blank line and its name, {@code path:} or {@code archive(member):}, followed by its symbols as
+ * written by {@link StreamDemangler#demangleSymbols(ElfFile)}.
+ *
+ * <p>Every object is cut into chunks of at most {@link #CHUNK_SYMBOLS} symbols, so the work
+ * handed to the pool is balanced by the size of the symbol tables rather than by file: a large
+ * archive or executable is spread over all the workers, and small objects are cheap tasks that
+ * idle workers steal.  Chunks are demangled into their own buffers and written out in the
+ * order of the tree, with a bounded number of them in flight at a time.
+ */
+public class SymbolScanner {
+
+	static final int CHUNK_SYMBOLS = 4096;
+
+	// Files smaller than this are read rather than mapped, so that walking thousands of small
+	// objects does not leave thousands of mappings behind until they are collected
+	private static final int MAP_THRESHOLD = 1 << 16;
+
+	private final OutputStream out;
+	private final ForkJoinPool pool;
+	private final ArrayDeque<Chunk> pending = new ArrayDeque<>();
+	private final List<String> errors = new ArrayList<>();
+	private DemangleCache cache;
+	private CacheFile cacheFile;
+
+	// Each worker demangles every chunk it takes with the same demangler, pointed at the
+	// chunk's buffer, rather than allocating one per chunk
+	private final ThreadLocal<StreamDemangler> demanglers =
+		ThreadLocal.withInitial(this::createDemangler);
+
+	/**
+	 * @param out the stream the symbols are written to; it is not closed
+	 * @param pool the pool to demangle on, or null to demangle on the calling thread
+	 */
+	public SymbolScanner(OutputStream out, ForkJoinPool pool) {
+		this.out = out;
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets a cache for the symbols, see {@link StreamDemangler#setCache(DemangleCache)}
+	 * @param cache the cache, or null for none
+	 */
+	public void setCache(DemangleCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets a cache file for the symbols, see {@link StreamDemangler#setDiskCache(DiskCache)}
+	 * @param diskCache the cache file, or null for none
+	 */
+	public void setDiskCache(DiskCache diskCache) {
+		this.cacheFile = diskCache;
+	}
+
+	/**
+	 * Sets a cache file shared with other processes for the symbols, see
+	 * {@link StreamDemangler#setSharedCache(SharedCache)}
+	 * @param sharedCache the shared cache, or null for none
+	 */
+	public void setSharedCache(SharedCache sharedCache) {
+		this.cacheFile = sharedCache;
+	}
+
+	private StreamDemangler createDemangler() {
+		StreamDemangler demangler = new StreamDemangler(OutputStream.nullOutputStream());
+		demangler.setCache(cache);
+		demangler.setCacheFile(cacheFile);
+		return demangler;
+	}
+
+	/**
+	 * Lists the symbols of an object file, an archive, or every {@code .o}, {@code .a} and
+	 * {@code .elf} file under a directory, in sorted path order, then flushes the output.
+	 * @param path the file or directory to scan
+	 * @throws IOException if writing fails
+	 * @see #scan(List)
+	 */
+	public void scan(Path path) throws IOException {
+		scan(List.of(path));
+	}
+
+	/**
+	 * Lists the symbols of object files, archives, or every {@code .o}, {@code .a} and
+	 * {@code .elf} file under directories, in the order given and in sorted path order under
+	 * each directory, then flushes the output.  As with {@code nm}, a single object file is
+	 * listed without a name in front.  Files under a directory that turn out not to be ELF
+	 * files or archives are skipped; paths, files or members that cannot be read are recorded,
+	 * see {@link #getErrors()}, and skipped.
+	 * @param paths the files and directories to scan
+	 * @throws IOException if writing fails
+	 */
+	public void scan(List<Path> paths) throws IOException {
+		try {
+			for (Path path : paths) {
+				List<Path> files;
+				try (Stream<Path> walk = Files.walk(path)) {
+					files = walk.filter(file -> file.equals(path) || isObjectName(file))
+							.filter(Files::isRegularFile)
+							.sorted()
+							.collect(Collectors.toList());
+				}
+				catch (IOException | UncheckedIOException e) {
+					errors.add(path + ": cannot read");
+					continue;
+				}
+
+				for (Path file : files) {
+					ByteBuffer bytes;
+					try {
+						bytes = read(file);
+					}
+					catch (IOException e) {
+						errors.add(file + ": cannot read");
+						continue;
+					}
+					scanFile(file, bytes, file.equals(path), paths.size() == 1);
+				}
+			}
+			while (!pending.isEmpty()) {
+				writeNext();
+			}
+		}
+		finally {
+			// Leave no chunk behind that still refers to a file after a failure
+			for (Chunk chunk : pending) {
+				chunk.quietlyJoin();
+			}
+			pending.clear();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Returns the files and archive members that could not be read, with the reason
+	 * @return one message per file or member, in the order they were found
+	 */
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	private static boolean isObjectName(Path file) {
+		String name = file.getFileName().toString();
+		return name.endsWith(".o") || name.endsWith(".a") || name.endsWith(".elf");
+	}
+
+	private static ByteBuffer read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size >= MAP_THRESHOLD) {
+				return channel.map(MapMode.READ_ONLY, 0, size);
+			}
+			ByteBuffer bytes = ByteBuffer.allocate((int) size);
+			while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+				// read it all
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * Lists the objects in a file that has been read
+	 * @param named true if the file was named rather than found in a directory
+	 * @param single true if it is the only path being scanned
+	 */
+	private void scanFile(Path file, ByteBuffer bytes, boolean named, boolean single)
+			throws IOException {
+		if (ArFile.isArchive(bytes)) {
+			ArFile archive;
+			try {
+				archive = new ArFile(bytes);
+			}
+			catch (IOException e) {
+				errors.add(file + ": " + e.getMessage());
+				return;
+			}
+			for (int i = 0; i < archive.getMemberCount(); i++) {
+				ByteBuffer member = archive.getMember(i);
+				if (ElfFile.isElf(member)) {
+					scanObject(file + "(" + archive.getMemberName(i) + ")", member, true);
+				}
+			}
+		}
+		else if (ElfFile.isElf(bytes)) {
+			scanObject(file.toString(), bytes, !named || !single);
+		}
+		else if (named) {
+			errors.add(file + ": not an ELF file or ar archive");
+		}
+	}
+
+	/**
+	 * Lists an object in chunks, the first one starting with its name if asked to
+	 */
+	private void scanObject(String name, ByteBuffer bytes, boolean withName) throws IOException {
+		ElfFile elf;
+		try {
+			elf = new ElfFile(bytes);
+		}
+		catch (ElfException e) {
+			errors.add(name + ": " + e.getMessage());
+			return;
+		}
+
+		String header = withName ? "\n" + name + ":\n" : null;
+		int count = elf.getSymbolCount();
+		int from = 1;
+		do {
+			submit(new Chunk(from == 1 ? header : null, elf, from,
+				Math.min(count, from + CHUNK_SYMBOLS), demanglers));
+			from += CHUNK_SYMBOLS;
+		}
+		while (from < count);
+	}
+
+	private void submit(Chunk chunk) throws IOException {
+		if (pool == null) {
+			chunk.invoke();
+			chunk.output.writeTo(out);
+			return;
+		}
+
+		// Keep enough chunks queued for every worker to have more to steal
+		while (pending.size() >= pool.getParallelism() * 4) {
+			writeNext();
+		}
+		pool.execute(chunk);
+		pending.add(chunk);
+	}
+
+	private void writeNext() throws IOException {
+		Chunk chunk = pending.remove();
+		chunk.join();
+		chunk.output.writeTo(out);
+	}
+
+	/**
+	 * A range of the symbols of one object, demangled by a worker into its own buffer
+	 */
+	private static final class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L; // default
+
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final String header;
+		final ElfFile elf;
+		final int from;
+		final int to;
+		final ThreadLocal<StreamDemangler> demanglers;
+
+		Chunk(String header, ElfFile elf, int from, int to,
+				ThreadLocal<StreamDemangler> demanglers) {
+			this.header = header;
+			this.elf = elf;
+			this.from = from;
+			this.to = to;
+			this.demanglers = demanglers;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (header != null) {
+					output.write(header.getBytes());
+				}
+				StreamDemangler demangler = demanglers.get();
+				demangler.setOutput(output);
+				try {
+					demangler.demangleSymbols(elf, from, to);
+					demangler.flush();
+				}
+				finally {
+					// Do not keep the buffer reachable once it has been handed back
+					demangler.setOutput(OutputStream.nullOutputStream());
+				}
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
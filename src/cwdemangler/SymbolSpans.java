@@ -0,0 +1,163 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.util.Arrays;
+
+/**
+ * A compact description of a mangled symbol as {@code (start, end)} spans into the original
+ * input, filled in by {@link CodeWarriorDemangler#scan(CharSequence, SymbolSpans)}.  No names
+ * are copied; the spans are kept in one int array that is reused across symbols.  A full
+ * {@link DemangledObject} is only built when {@link #toDemangledObject()} is called.
+ *
+ * <p>Spans are recorded in the order they appear in the symbol.  Parameter and return type spans
+ * cover the whole mangled type, for example {@code RC12JMapInfoIter}.  Template argument spans
+ * are only recorded for the function name and the class name, not for nested templates.
+ */
+public class SymbolSpans {
+
+	/**
+	 * What a span refers to
+	 */
+	public enum Kind {
+		/** The function or member name, without its template argument list */
+		NAME,
+		/**
+		 * One component of the class name, outermost first, without its template arguments, or
+		 * the whole mangled type if the class is not a name, such as {@code v}
+		 */
+		NAMESPACE,
+		/** One argument of a template argument list of the name or the class name */
+		TEMPLATE_ARGUMENT,
+		/** One mangled parameter type */
+		PARAMETER,
+		/** The mangled return type */
+		RETURN_TYPE
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+
+	private CharSequence symbol;
+	private MangledKind mangledKind = MangledKind.PLAIN;
+	private int[] spans = new int[3 * 8]; // kind, start, end
+	private int size;
+
+	void reset(CharSequence newSymbol) {
+		this.symbol = newSymbol;
+		this.mangledKind = MangledKind.PLAIN;
+		this.size = 0;
+	}
+
+	void setMangledKind(MangledKind kind) {
+		this.mangledKind = kind;
+	}
+
+	void add(Kind kind, int start, int end) {
+		if (3 * size == spans.length) {
+			spans = Arrays.copyOf(spans, spans.length * 2);
+		}
+		spans[3 * size] = kind.ordinal();
+		spans[3 * size + 1] = start;
+		spans[3 * size + 2] = end;
+		size++;
+	}
+
+	/**
+	 * Returns the symbol these spans point into
+	 * @return the symbol
+	 */
+	public CharSequence getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * Returns the kind of the scanned symbol
+	 * @return the kind, {@link MangledKind#PLAIN} if it could not be scanned
+	 */
+	public MangledKind getMangledKind() {
+		return mangledKind;
+	}
+
+	/**
+	 * Returns the number of recorded spans
+	 * @return the number of spans
+	 */
+	public int size() {
+		return size;
+	}
+
+	public Kind getKind(int index) {
+		return KINDS[spans[3 * checkIndex(index)]];
+	}
+
+	public int getStart(int index) {
+		return spans[3 * checkIndex(index) + 1];
+	}
+
+	public int getEnd(int index) {
+		return spans[3 * checkIndex(index) + 2];
+	}
+
+	/**
+	 * Returns the text of a span as a view of the symbol
+	 * @param index the span index
+	 * @return the text of the span
+	 */
+	public CharSequence getText(int index) {
+		return symbol.subSequence(getStart(index), getEnd(index));
+	}
+
+	/**
+	 * Returns the index of the first span of the given kind
+	 * @param kind the kind of span
+	 * @return the span index, or -1 if there is none
+	 */
+	public int indexOf(Kind kind) {
+		for (int i = 0; i < size; i++) {
+			if (spans[3 * i] == kind.ordinal()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Demangles the symbol into a full object model
+	 * @return the demangled object, or null if the symbol is not mangled
+	 */
+	public DemangledObject toDemangledObject() {
+		if (!mangledKind.isMangled()) {
+			return null;
+		}
+		return CodeWarriorDemangler.demangleSymbol(symbol);
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Span " + index + " out of " + size);
+		}
+		return index;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append(mangledKind);
+		for (int i = 0; i < size; i++) {
+			buffer.append(' ').append(getKind(i)).append('[').append(getStart(i)).append(',');
+			buffer.append(getEnd(i)).append(")=").append(getText(i));
+		}
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,170 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that {@link CodeWarriorDemangler#classify(CharSequence)} never returns
+ * {@link MangledKind#PLAIN} for a symbol the parser accepts, and that it tells data members from
+ * functions the way the parser does.  The parser is driven as it was before symbols were
+ * classified: every symbol with a dunder is handed to it, and it reads whatever type follows
+ * the dunder as the class.
+ *
+ * <p>Every symbol up to {@code -length} characters after a set of prefixes is checked, and so is
+ * every symbol read from the files given, along with corrupted copies of it.
+ *
+ * <pre>
+ * javac -d bin src/cwdemangler/*.java test/cwdemangler/ClassifyDifferential.java
+ * java -cp bin cwdemangler.ClassifyDifferential [-length LENGTH] [FILE...]
+ * </pre>
+ *
+ * Exits with status 1 if any symbol is classified wrongly.
+ */
+public class ClassifyDifferential {
+
+	private static final int MAX_REPORTED = 20;
+
+	private static final String[] PREFIXES = { "f__", "f___", "@8@f__", "__ct__", "__vt__" };
+	private static final String ALPHABET = "FPCcRUSAMQ12_<>,iv";
+
+	private final CodeWarriorDemangler classifier = new CodeWarriorDemangler();
+	private final Random random = new Random(42);
+	private int compared;
+	private int accepted;
+	private int plain;
+	private int differences;
+
+	public static void main(String[] args) throws IOException {
+		int length = 4;
+		List<String> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-length")) {
+				length = Integer.parseInt(args[++i]);
+			}
+			else {
+				files.add(args[i]);
+			}
+		}
+
+		ClassifyDifferential differential = new ClassifyDifferential();
+		for (String prefix : PREFIXES) {
+			differential.compareAll(new StringBuilder(prefix), length);
+		}
+		for (String file : files) {
+			for (String symbol : Files.readAllLines(Paths.get(file),
+				StandardCharsets.ISO_8859_1)) {
+				differential.compare(symbol);
+				for (int i = 0; i < 4; i++) {
+					differential.compare(differential.corrupt(symbol));
+				}
+			}
+		}
+
+		System.out.println(differential.compared + " symbols compared, " + differential.accepted +
+			" accepted by the parser, " + differential.plain + " classified plain, " +
+			differential.differences + " classified wrongly");
+		if (differential.differences != 0) {
+			System.exit(1);
+		}
+	}
+
+	private void compareAll(StringBuilder symbol, int length) {
+		compare(symbol.toString());
+		if (length == 0) {
+			return;
+		}
+		for (int i = 0; i < ALPHABET.length(); i++) {
+			symbol.append(ALPHABET.charAt(i));
+			compareAll(symbol, length - 1);
+			symbol.setLength(symbol.length() - 1);
+		}
+	}
+
+	private void compare(String symbol) {
+		compared++;
+		MangledKind expected = parse(symbol);
+		MangledKind actual = classifier.classify(symbol);
+		if (expected != null) {
+			accepted++;
+		}
+		if (actual == MangledKind.PLAIN) {
+			plain++;
+		}
+		if (expected != null && (actual == MangledKind.PLAIN ||
+			(expected == MangledKind.DATA_MEMBER) != (actual == MangledKind.DATA_MEMBER))) {
+			if (++differences <= MAX_REPORTED) {
+				System.out.println(symbol + ": parsed as " + expected + ", classified " + actual);
+			}
+		}
+	}
+
+	/**
+	 * Parses a symbol without classifying it first
+	 * @return {@link MangledKind#FUNCTION} or {@link MangledKind#DATA_MEMBER} for what the
+	 * parser took the symbol to be, or null if it rejects the symbol
+	 */
+	private static MangledKind parse(String symbol) {
+		try {
+			if (!symbol.contains("__")) {
+				return null;
+			}
+			int start = symbol.startsWith("@") ? symbol.lastIndexOf('@') + 1 : 0;
+			int firstDunder = symbol.indexOf("__", start + 1);
+			if (firstDunder < 0) {
+				return null;
+			}
+			while (symbol.charAt(firstDunder + 2) == '_') {
+				firstDunder++;
+			}
+
+			CodeWarriorDemangler parser =
+				new CodeWarriorDemangler(symbol, firstDunder + 2, symbol.length());
+			DemangledDataType parentClass = null;
+			if (!parser.hasFunction()) {
+				parentClass = parser.nextType();
+			}
+			if (parser.isConstFunc() || parser.hasFunction()) {
+				parser.nextFunction(parentClass, symbol);
+				return parser.containsInvalidSpecifier ? null : MangledKind.FUNCTION;
+			}
+			return parser.isEmpty() ? MangledKind.DATA_MEMBER : null;
+		}
+		catch (RuntimeException | AssertionError e) {
+			return null;
+		}
+	}
+
+	private String corrupt(String symbol) {
+		if (symbol.isEmpty()) {
+			return symbol;
+		}
+		int at = random.nextInt(symbol.length());
+		char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+		switch (random.nextInt(3)) {
+			case 0:
+				return symbol.substring(0, at) + c + symbol.substring(at + 1);
+			case 1:
+				return symbol.substring(0, at) + c + symbol.substring(at);
+			default:
+				return symbol.substring(0, at) + symbol.substring(at + 1);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that a {@link DemangleCache} is transparent: whatever was demangled before, and whether
+ * a symbol is a hit or a miss, the cache returns the text demangling the symbol on its own gives.
+ * The symbols, a built-in set with function pointers or those read from the files given, are
+ * demangled in several shuffled orders through a cache small enough to evict most of them.
+ *
+ * <pre>
+ * javac -d bin src/cwdemangler/*.java test/cwdemangler/DemangleCacheTransparencyTest.java
+ * java -cp bin cwdemangler.DemangleCacheTransparencyTest [FILE...]
+ * </pre>
+ *
+ * Exits with status 1 if any symbol differs.
+ */
+public class DemangleCacheTransparencyTest {
+
+	private static final int ROUNDS = 4;
+	private static final int MAX_REPORTED = 20;
+
+	//@formatter:off
+	private static final String[] SYMBOLS = {
+		"fn__FPFi_v",
+		"fn__FPFv_v",
+		"fn__FiPFv_v_c",
+		"fn__FPFi_PFf_v",
+		"fn__FM3ClsFPv_i",
+		"set__3FooFPFPCcRi_PCvPFv_v",
+		"__ct__9Holder<i>FPFv_v",
+		"__dt__9Holder<i>Fv",
+		"callback__Q23std8functionFPFPv_v",
+		"plain_c_name",
+	};
+	//@formatter:on
+
+	public static void main(String[] args) throws IOException {
+		List<String> symbols = new ArrayList<>();
+		for (String file : args) {
+			symbols.addAll(Files.readAllLines(Paths.get(file), StandardCharsets.ISO_8859_1));
+		}
+		if (symbols.isEmpty()) {
+			symbols.addAll(List.of(SYMBOLS));
+		}
+
+		List<String> expected = new ArrayList<>();
+		for (String symbol : symbols) {
+			expected.add(StreamDemangler.toOutput(symbol));
+		}
+
+		DemangleCache cache = DemangleCache.withMaximumEntries(Math.max(1, symbols.size() / 4));
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < symbols.size(); i++) {
+			order.add(i);
+		}
+		Random random = new Random(42);
+		int differences = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			Collections.shuffle(order, random);
+			for (int i : order) {
+				// Demangle others in between, so each symbol is not the first one demangled
+				StreamDemangler.toOutput(symbols.get(random.nextInt(symbols.size())));
+				String actual = cache.demangle(symbols.get(i));
+				if (!actual.equals(expected.get(i)) && ++differences <= MAX_REPORTED) {
+					System.out.println(symbols.get(i));
+					System.out.println("  uncached: " + expected.get(i));
+					System.out.println("  cached:   " + actual);
+				}
+			}
+		}
+
+		System.out.println(symbols.size() * ROUNDS + " lookups, " + cache.getHitCount() +
+			" hits, " + differences + " differ");
+		if (differences != 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+/**
+ * Checks that {@link DemangledType#getNamespaceString()} renders its string again after a
+ * namespace, a template or a template argument it was rendered from changes, once the string
+ * is cached.
+ *
+ * <pre>
+ * javac -d bin src/cwdemangler/*.java test/cwdemangler/NamespaceStringCacheTest.java
+ * java -cp bin cwdemangler.NamespaceStringCacheTest
+ * </pre>
+ *
+ * Exits with status 1 if any check fails.
+ */
+public class NamespaceStringCacheTest {
+
+	private static int failures;
+
+	public static void main(String[] args) {
+		DemangledType outer = type("Outer");
+		DemangledType middle = type("Middle");
+		middle.setNamespace(outer);
+		DemangledDataType inner = new DemangledDataType(null, "Inner", "Inner");
+		inner.setNamespace(middle);
+		check("cached", inner, "Outer::Middle::Inner");
+		check("cached again", inner, "Outer::Middle::Inner");
+
+		outer.setName("Renamed");
+		check("grandparent renamed", inner, "Renamed::Middle::Inner");
+
+		middle.setNamespace(type("Other"));
+		check("parent moved", inner, "Other::Middle::Inner");
+
+		DemangledTemplate template = new DemangledTemplate();
+		DemangledDataType argument = new DemangledDataType(null, "int", "int");
+		template.addParameter(argument);
+		middle.setTemplate(template);
+		check("parent templated", inner, "Other::Middle<int>::Inner");
+
+		argument.incrementPointerLevels();
+		check("template argument changed", inner, "Other::Middle<int *>::Inner");
+
+		template.addParameter(new DemangledDataType(null, "bool", "bool"));
+		check("template argument added", inner, "Other::Middle<int *,bool>::Inner");
+
+		DemangledType argumentClass = type("Arg");
+		argument.setNamespace(argumentClass);
+		check("template argument qualified", inner, "Other::Middle<Arg::int *,bool>::Inner");
+		argumentClass.setName("Qualifier");
+		check("namespace of template argument renamed", inner,
+			"Other::Middle<Qualifier::int *,bool>::Inner");
+
+		// A namespace that is not a DemangledType cannot be tracked, so it is never cached
+		DemangledVariable variable = new DemangledVariable("var", "var", "var");
+		DemangledDataType local = new DemangledDataType(null, "Local", "Local");
+		local.setNamespace(variable);
+		String first = local.getNamespaceString();
+		variable.setName("renamed");
+		check("untracked namespace renamed", local.getNamespaceString().equals(first) ? "same"
+				: "changed", "changed");
+
+		System.out.println(failures == 0 ? "all checks passed" : failures + " checks failed");
+		if (failures != 0) {
+			System.exit(1);
+		}
+	}
+
+	private static DemangledType type(String name) {
+		return new DemangledType(null, name, name);
+	}
+
+	private static void check(String what, DemangledType type, String expected) {
+		check(what, type.getNamespaceString(), expected);
+	}
+
+	private static void check(String what, String actual, String expected) {
+		if (!actual.equals(expected)) {
+			failures++;
+			System.out.println(what + ": expected " + expected + ", got " + actual);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures {@code --shared-cache} the way a parallel build uses it: one {@code cwd} process per
+ * input file, all started at once.  The processes run three times, without a cache, with a new
+ * shared cache, and again with the cache the second round filled.  Each round reports its wall
+ * time and the hits and misses of all processes, from {@code --stats}; the hits of the cold round
+ * are symbols one process found because another had demangled them.
+ *
+ * <pre>
+ * javac -d bin src/cwdemangler/*.java test/cwdemangler/SharedCacheBenchmark.java
+ * java -cp bin cwdemangler.SharedCacheBenchmark FILE...
+ * </pre>
+ */
+public class SharedCacheBenchmark {
+
+	private static final Pattern STATS =
+		Pattern.compile("cwd: shared cache: (\\d+) entries, (\\d+) hits, (\\d+) misses;");
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 0) {
+			System.err.println("usage: SharedCacheBenchmark FILE...");
+			System.exit(2);
+		}
+		Path cache = Files.createTempFile("cwd-benchmark", ".cache");
+		Files.delete(cache);
+		try {
+			run("no cache", args, null);
+			run("cold", args, cache);
+			run("warm", args, cache);
+		}
+		finally {
+			Files.deleteIfExists(cache);
+		}
+	}
+
+	private static void run(String name, String[] files, Path cache)
+			throws IOException, InterruptedException {
+		String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+		List<Process> processes = new ArrayList<>();
+		long start = System.nanoTime();
+		for (String file : files) {
+			List<String> command = new ArrayList<>(List.of(java, "-cp",
+				System.getProperty("java.class.path"), CodeWarriorDemangler.class.getName(),
+				"--file=" + file));
+			if (cache != null) {
+				command.add("--shared-cache=" + cache);
+				command.add("--stats");
+			}
+			processes.add(new ProcessBuilder(command)
+					.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+					.start());
+		}
+
+		long entries = 0;
+		long hits = 0;
+		long misses = 0;
+		for (Process process : processes) {
+			String stats = new String(process.getErrorStream().readAllBytes(),
+				StandardCharsets.ISO_8859_1);
+			if (process.waitFor() != 0) {
+				throw new IOException("cwd failed: " + stats);
+			}
+			Matcher matcher = STATS.matcher(stats);
+			if (matcher.find()) {
+				entries = Math.max(entries, Long.parseLong(matcher.group(1)));
+				hits += Long.parseLong(matcher.group(2));
+				misses += Long.parseLong(matcher.group(3));
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		if (cache == null) {
+			System.out.printf("%-9s %6.2fs%n", name, seconds);
+		}
+		else {
+			System.out.printf("%-9s %6.2fs  %d entries, %d hits, %d misses, %.1f%% hit rate%n",
+				name, seconds, entries, hits, misses, hits * 100.0 / Math.max(1, hits + misses));
+		}
+	}
+}
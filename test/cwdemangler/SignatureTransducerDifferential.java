@@ -0,0 +1,267 @@
+/* ###
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cwdemangler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that {@link SignatureTransducer} writes the same text as
+ * {@code CodeWarriorDemangler.demangleSymbol(symbol).getSignature()}, and fails on the same
+ * symbols.  Returning null and throwing both count as failing, since the object model throws
+ * where it has no text to render and the transducer returns null.  Symbols are generated from
+ * the mangling grammar, and a share of them, along with every symbol read from the files given,
+ * is corrupted by replacing, inserting, deleting or truncating characters.
+ *
+ * <pre>
+ * javac -d bin src/cwdemangler/*.java test/cwdemangler/SignatureTransducerDifferential.java
+ * java -cp bin cwdemangler.SignatureTransducerDifferential [-n COUNT] [-seed SEED] [FILE...]
+ * </pre>
+ *
+ * Exits with status 1 if any symbol differs.
+ */
+public class SignatureTransducerDifferential {
+
+	private static final int MAX_REPORTED = 20;
+	private static final String FAILED = "failed";
+
+	//@formatter:off
+	private static final String PRIMITIVES = "ilxbcsfdwve";
+	private static final String[] IDENTIFIERS = {
+		"Foo", "Bar", "std", "vector", "string", "JSystem", "J3DModel", "a", "x_y", "CBase",
+	};
+	private static final String[] FUNCTIONS = {
+		"func", "__ct", "__dt", "__as", "__pl", "__nwa", "__eq", "__vc", "__cl", "__rf",
+		"get_x", "update", "run_", "calc<i>", "make<3Foo,f>",
+	};
+	//@formatter:on
+
+	private final Random random;
+	private int compared;
+	private int differences;
+
+	private SignatureTransducerDifferential(long seed) {
+		random = new Random(seed);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int count = 200_000;
+		long seed = 42;
+		List<String> files = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-n")) {
+				count = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-seed")) {
+				seed = Long.parseLong(args[++i]);
+			}
+			else {
+				files.add(args[i]);
+			}
+		}
+
+		SignatureTransducerDifferential differential = new SignatureTransducerDifferential(seed);
+		for (String file : files) {
+			for (String symbol : Files.readAllLines(Paths.get(file),
+				StandardCharsets.ISO_8859_1)) {
+				differential.compare(symbol);
+				differential.compare(differential.corrupt(symbol));
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			String symbol = differential.symbol();
+			differential.compare(differential.random.nextInt(8) == 0 ? differential.corrupt(symbol)
+				: symbol);
+		}
+
+		System.out.println(differential.compared + " symbols compared, " +
+			differential.differences + " differ");
+		if (differential.differences != 0) {
+			System.exit(1);
+		}
+	}
+
+	private void compare(String symbol) {
+		compared++;
+		String expected = model(symbol);
+		String actual = transducer(symbol);
+		if (!expected.equals(actual)) {
+			if (++differences <= MAX_REPORTED) {
+				System.out.println(symbol);
+				System.out.println("  model:      " + expected);
+				System.out.println("  transducer: " + actual);
+			}
+		}
+	}
+
+	private static String model(String symbol) {
+		try {
+			DemangledObject demangled = CodeWarriorDemangler.demangleSymbol(symbol);
+			return demangled == null ? FAILED : demangled.getSignature();
+		}
+		catch (RuntimeException | AssertionError e) {
+			return FAILED;
+		}
+	}
+
+	private static String transducer(String symbol) {
+		try {
+			String signature = SignatureTransducer.demangleToSignature(symbol);
+			return signature == null ? FAILED : signature;
+		}
+		catch (RuntimeException | AssertionError e) {
+			return FAILED;
+		}
+	}
+
+	private String corrupt(String symbol) {
+		if (symbol.isEmpty()) {
+			return symbol;
+		}
+		int at = random.nextInt(symbol.length());
+		char c = "Q0123456789FPRCUSMA_<>,ZqX".charAt(random.nextInt(26));
+		switch (random.nextInt(4)) {
+			case 0:
+				return symbol.substring(0, at) + c + symbol.substring(at + 1);
+			case 1:
+				return symbol.substring(0, at) + c + symbol.substring(at);
+			case 2:
+				return symbol.substring(0, at) + symbol.substring(at + 1);
+			default:
+				return symbol.substring(0, at);
+		}
+	}
+
+	private String symbol() {
+		switch (random.nextInt(12)) {
+			case 0:
+				return IDENTIFIERS[random.nextInt(IDENTIFIERS.length)] + "__" + owner();
+			case 1:
+				return "@" + random.nextInt(64) + "@" + function() + "__" + qualifiedName() + "F" +
+					parameters();
+			case 2:
+				return "plain_c_name" + random.nextInt(100);
+			default:
+				String owner = random.nextInt(3) == 0 ? "" : owner();
+				String function = function() + "__" + owner +
+					(!owner.isEmpty() && random.nextInt(5) == 0 ? "CF" : "F") + parameters();
+				return random.nextInt(6) == 0 ? function + "_" + type(1) : function;
+		}
+	}
+
+	private String function() {
+		return FUNCTIONS[random.nextInt(FUNCTIONS.length)];
+	}
+
+	private String parameters() {
+		int count = random.nextInt(5);
+		if (count == 0) {
+			return "v";
+		}
+		StringBuilder buffer = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			buffer.append(type(1));
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Returns the class of a member, which the parser also takes to be any other type
+	 */
+	private String owner() {
+		return random.nextInt(4) == 0 ? type(1) : qualifiedName();
+	}
+
+	private String qualifiedName() {
+		if (random.nextBoolean()) {
+			return name(1);
+		}
+		int count = 2 + random.nextInt(2);
+		StringBuilder buffer = new StringBuilder("Q").append(count);
+		for (int i = 0; i < count; i++) {
+			buffer.append(name(1));
+		}
+		return buffer.toString();
+	}
+
+	private String name(int depth) {
+		String name = IDENTIFIERS[random.nextInt(IDENTIFIERS.length)];
+		if (depth < 3 && random.nextInt(4) == 0) {
+			StringBuilder buffer = new StringBuilder(name).append('<');
+			int count = 1 + random.nextInt(3);
+			for (int i = 0; i < count; i++) {
+				if (i > 0) {
+					buffer.append(',');
+				}
+				buffer.append(random.nextInt(5) == 0 ? Integer.toString(random.nextInt(100))
+						: type(depth + 1));
+			}
+			name = buffer.append('>').toString();
+		}
+		return name.length() + name;
+	}
+
+	private String type(int depth) {
+		switch (random.nextInt(depth > 3 ? 3 : 14)) {
+			case 0:
+			case 1:
+				return primitive();
+			case 2:
+				return name(depth);
+			case 3:
+				return "P" + type(depth + 1);
+			case 4:
+				return "R" + type(depth + 1);
+			case 5:
+				return "C" + type(depth + 1);
+			case 6:
+				return "U" + primitive();
+			case 7:
+				return "S" + primitive();
+			case 8:
+				return "PC" + name(depth);
+			case 9:
+				return "A" + random.nextInt(10) + "_" + type(depth + 1);
+			case 10:
+				return "M" + name(depth + 1) + "F" + type(depth + 1) + "_" + type(depth + 1);
+			case 11: {
+				StringBuilder buffer = new StringBuilder("PF");
+				int count = random.nextInt(3);
+				for (int i = 0; i < count; i++) {
+					buffer.append(type(depth + 1));
+				}
+				return buffer.append('_').append(type(depth + 1)).toString();
+			}
+			case 12: {
+				int count = 2 + random.nextInt(2);
+				StringBuilder buffer = new StringBuilder("Q").append(count);
+				for (int i = 0; i < count; i++) {
+					buffer.append(name(depth + 1));
+				}
+				return buffer.toString();
+			}
+			default:
+				return primitive();
+		}
+	}
+
+	private String primitive() {
+		return String.valueOf(PRIMITIVES.charAt(random.nextInt(PRIMITIVES.length())));
+	}
+}